@@ -0,0 +1,146 @@
+package backend;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds how many query requests run at once. Requests beyond the concurrency limit wait in a
+ * priority queue of fixed depth (higher classes first, then arrival order); when the queue is
+ * full or a request waits too long it is rejected at once instead of slowing everyone down.
+ */
+public final class AdmissionController {
+    /** Request classes in descending priority. */
+    public enum Priority {
+        INTERACTIVE,
+        BULK
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueueDepth;
+    private final long maxWaitNanos;
+    private final PriorityQueue<Waiter> waiting = new PriorityQueue<>(Waiter.ORDER);
+    private final Map<Priority, LongAdder> admitted = new EnumMap<>(Priority.class);
+    private final Map<Priority, LongAdder> rejected = new EnumMap<>(Priority.class);
+    private int running;
+    private int peakQueueDepth;
+    private long arrivals;
+
+    public AdmissionController(int maxConcurrent, int maxQueueDepth, long maxWaitMillis) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Concurrency limit must be at least 1");
+        }
+        if (maxQueueDepth < 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Queue depth and wait must not be negative");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        for (Priority priority : Priority.values()) {
+            admitted.put(priority, new LongAdder());
+            rejected.put(priority, new LongAdder());
+        }
+    }
+
+    /**
+     * Takes a slot for a request of the given class, queueing if all slots are busy.
+     * Returns false when the request should be shed; every true result needs a {@link #release()}.
+     */
+    public synchronized boolean acquire(Priority priority) {
+        if (running < maxConcurrent && waiting.isEmpty()) {
+            running++;
+            admitted.get(priority).increment();
+            return true;
+        }
+        if (waiting.size() >= maxQueueDepth) {
+            rejected.get(priority).increment();
+            return false;
+        }
+
+        Waiter waiter = new Waiter(priority, arrivals++);
+        waiting.add(waiter);
+        peakQueueDepth = Math.max(peakQueueDepth, waiting.size());
+        long deadline = System.nanoTime() + maxWaitNanos;
+        try {
+            while (!waiter.granted) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (waiter.granted) {
+            admitted.get(priority).increment();
+            return true;
+        }
+        waiting.remove(waiter);
+        rejected.get(priority).increment();
+        return false;
+    }
+
+    /** Frees a slot, handing it straight to the highest-priority waiter if there is one. */
+    public synchronized void release() {
+        Waiter next = waiting.poll();
+        if (next == null) {
+            running--;
+            return;
+        }
+        next.granted = true;
+        notifyAll();
+    }
+
+    /** Snapshot of the limits and counters for monitoring. */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("maxQueueDepth", maxQueueDepth);
+        stats.put("maxWaitMs", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+        stats.put("running", running);
+        stats.put("queueDepth", waiting.size());
+        stats.put("peakQueueDepth", peakQueueDepth);
+        stats.put("admitted", countsByClass(admitted));
+        stats.put("rejected", countsByClass(rejected));
+        return stats;
+    }
+
+    /** Requests currently waiting for a slot. */
+    public synchronized int getQueueDepth() {
+        return waiting.size();
+    }
+
+    /** Total requests shed across all classes. */
+    public long getRejectedCount() {
+        long total = 0;
+        for (LongAdder count : rejected.values()) total += count.sum();
+        return total;
+    }
+
+    private static Map<String, Long> countsByClass(Map<Priority, LongAdder> counts) {
+        Map<String, Long> byClass = new LinkedHashMap<>();
+        for (Map.Entry<Priority, LongAdder> count : counts.entrySet()) {
+            byClass.put(count.getKey().name().toLowerCase(Locale.ROOT), count.getValue().sum());
+        }
+        return byClass;
+    }
+
+    private static final class Waiter {
+        static final Comparator<Waiter> ORDER = Comparator
+                .comparingInt((Waiter w) -> w.priority.ordinal())
+                .thenComparingLong(w -> w.arrival);
+
+        final Priority priority;
+        final long arrival;
+        boolean granted;
+
+        Waiter(Priority priority, long arrival) {
+            this.priority = priority;
+            this.arrival = arrival;
+        }
+    }
+}
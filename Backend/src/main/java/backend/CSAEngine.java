@@ -11,6 +11,8 @@ import java.util.Map;
 
 public final class CSAEngine {
     private static final double EPS = 1e-6;
+    /** Connections scanned between deadline checks. */
+    private static final int DEADLINE_CHECK_CONNECTIONS = 4096;
 
     private CSAEngine() {
     }
@@ -22,11 +24,49 @@ public final class CSAEngine {
                              Map<Integer, StopLocation> stopDetails,
                              Map<Integer, List<WalkingEdge>> walkingEdges,
                              QueryPreferences preferences) {
+        return run(List.of(new WalkingEdge(TransitSystem.ORIGIN_STOP_ID, sourceStop, 0, 0.0)),
+                List.of(new WalkingEdge(targetStop, TransitSystem.DESTINATION_STOP_ID, 0, 0.0)),
+                departureTime,
+                trips,
+                stopDetails,
+                walkingEdges,
+                preferences);
+    }
+
+    /**
+     * Scans connections from a set of access stops towards a set of egress stops. Access edges
+     * seed their stop with the departure time plus the walk offset; egress edges bound the scan
+     * once some egress stop plus its walk reaches the destination. An empty egress list scans
+     * every connection, yielding a one-to-all result.
+     */
+    public static Result run(List<WalkingEdge> accessEdges,
+                             List<WalkingEdge> egressEdges,
+                             String departureTime,
+                             Map<String, Trip> trips,
+                             Map<Integer, StopLocation> stopDetails,
+                             Map<Integer, List<WalkingEdge>> walkingEdges,
+                             QueryPreferences preferences) {
+        return run(accessEdges, egressEdges, departureTime, trips, stopDetails, walkingEdges, preferences,
+                QueryContext.unbounded());
+    }
+
+    /**
+     * As above, checking the context's deadline every {@value #DEADLINE_CHECK_CONNECTIONS}
+     * connections; once it passes, the labels reached so far are returned.
+     */
+    public static Result run(List<WalkingEdge> accessEdges,
+                             List<WalkingEdge> egressEdges,
+                             String departureTime,
+                             Map<String, Trip> trips,
+                             Map<Integer, StopLocation> stopDetails,
+                             Map<Integer, List<WalkingEdge>> walkingEdges,
+                             QueryPreferences preferences,
+                             QueryContext context) {
         if (preferences == null) {
             throw new IllegalArgumentException("Query preferences are required for CSA");
         }
 
-        int stopCount = computeStopCount(stopDetails, sourceStop, targetStop);
+        int stopCount = computeStopCount(stopDetails, accessEdges, egressEdges);
         int departureMinutes = Raptor.timeToMinutes(departureTime);
 
         int[] earliestArrival = new int[stopCount];
@@ -39,40 +79,69 @@ public final class CSAEngine {
         Arrays.fill(consecutiveWalk, Double.POSITIVE_INFINITY);
 
         Map<Integer, Predecessor> predecessor = new HashMap<>();
+        SearchStats stats = context.workCounters();
+        if (stats != null) {
+            stats.algorithm = "CSA";
+        }
 
-        earliestArrival[sourceStop] = departureMinutes;
-        totalWalk[sourceStop] = 0.0;
-        consecutiveWalk[sourceStop] = 0.0;
-
-        if (preferences.allowsWalking()) {
-            propagateFootpaths(sourceStop,
-                    departureMinutes,
-                    0.0,
-                    0.0,
-                    walkingEdges,
-                    preferences,
-                    earliestArrival,
-                    totalWalk,
-                    consecutiveWalk,
-                    predecessor,
-                    targetStop);
+        int[] egressMinutes = egressMinutes(egressEdges, stopCount);
+        List<Integer> seeded = new ArrayList<>();
+        for (WalkingEdge access : accessEdges) {
+            int accessStop = access.getToStopId();
+            if (accessStop < 0 || accessStop >= stopCount) continue;
+            double accessKm = access.getDistanceKm();
+            if (accessKm > preferences.getMaxCumulativeWalkKm() + EPS
+                    || accessKm > preferences.getMaxConsecutiveWalkKm() + EPS) continue;
+
+            int arrival = departureMinutes + access.getDurationMinutes();
+            if (isBetterState(arrival, accessKm, accessKm,
+                    earliestArrival[accessStop], totalWalk[accessStop], consecutiveWalk[accessStop])) {
+                earliestArrival[accessStop] = arrival;
+                totalWalk[accessStop] = accessKm;
+                consecutiveWalk[accessStop] = accessKm;
+                seeded.add(accessStop);
+                if (stats != null) stats.labelsImproved++;
+            }
         }
 
-        List<Connection> connections = buildConnections(trips, preferences);
-        if (connections.isEmpty()) {
-            return new Result(earliestArrival, totalWalk, consecutiveWalk, predecessor);
+        if (preferences.allowsWalking()) {
+            for (int accessStop : seeded) {
+                propagateFootpaths(accessStop,
+                        earliestArrival[accessStop],
+                        totalWalk[accessStop],
+                        consecutiveWalk[accessStop],
+                        walkingEdges,
+                        preferences,
+                        earliestArrival,
+                        totalWalk,
+                        consecutiveWalk,
+                        predecessor,
+                        egressMinutes,
+                        stats);
+            }
         }
 
+        long buildStart = System.nanoTime();
+        List<Connection> connections = buildConnections(trips, preferences, stats);
         connections.sort(Comparator
                 .comparingInt((Connection c) -> c.departureTime)
                 .thenComparingInt(c -> c.arrivalTime));
+        if (stats != null) {
+            stats.addPhase("connections", System.nanoTime() - buildStart);
+        }
+        if (connections.isEmpty()) {
+            return new Result(earliestArrival, totalWalk, consecutiveWalk, predecessor);
+        }
 
-        int bestTargetArrival = earliestArrival[targetStop];
+        int bestTargetArrival = bestEgressArrival(egressEdges, earliestArrival);
 
+        int scanned = 0;
         for (Connection connection : connections) {
+            if (scanned++ % DEADLINE_CHECK_CONNECTIONS == 0 && context.deadlineReached()) break;
             if (bestTargetArrival != Integer.MAX_VALUE && connection.departureTime > bestTargetArrival) {
                 break;
             }
+            if (stats != null) stats.connectionsScanned++;
 
             int depStop = connection.departureStop;
             if (depStop < 0 || depStop >= earliestArrival.length) continue;
@@ -112,9 +181,12 @@ public final class CSAEngine {
                         false,
                         0.0,
                         connection.mode));
+                if (stats != null) stats.labelsImproved++;
 
+                // Only the stops improved just now can bring the destination closer.
+                int reached = targetArrival(arrStop, arrTime, egressMinutes);
                 if (preferences.allowsWalking()) {
-                    propagateFootpaths(arrStop,
+                    int walkedTo = propagateFootpaths(arrStop,
                             arrTime,
                             newTotalWalk,
                             newConsecutiveWalk,
@@ -124,23 +196,54 @@ public final class CSAEngine {
                             totalWalk,
                             consecutiveWalk,
                             predecessor,
-                            targetStop);
-                    bestTargetArrival = Math.min(bestTargetArrival, earliestArrival[targetStop]);
-                }
-
-                if (arrStop == targetStop && arrTime < bestTargetArrival) {
-                    bestTargetArrival = arrTime;
+                            egressMinutes,
+                            stats);
+                    reached = Math.min(reached, walkedTo);
                 }
+                bestTargetArrival = Math.min(bestTargetArrival, reached);
             }
         }
 
         return new Result(earliestArrival, totalWalk, consecutiveWalk, predecessor);
     }
 
-    private static List<Connection> buildConnections(Map<String, Trip> trips, QueryPreferences preferences) {
+    /** Shortest egress walk from each stop to the destination in minutes, MAX_VALUE where there is none. */
+    private static int[] egressMinutes(List<WalkingEdge> egressEdges, int stopCount) {
+        int[] minutes = new int[stopCount];
+        Arrays.fill(minutes, Integer.MAX_VALUE);
+        for (WalkingEdge egress : egressEdges) {
+            int stop = egress.getFromStopId();
+            if (stop < 0 || stop >= stopCount) continue;
+            minutes[stop] = Math.min(minutes[stop], egress.getDurationMinutes());
+        }
+        return minutes;
+    }
+
+    /** Time the destination is reached from {@code stop} when arriving there at {@code arrival}, or MAX_VALUE. */
+    private static int targetArrival(int stop, int arrival, int[] egressMinutes) {
+        int walk = egressMinutes[stop];
+        return walk == Integer.MAX_VALUE ? Integer.MAX_VALUE : arrival + walk;
+    }
+
+    /** Earliest time the destination can be reached through any egress stop, or MAX_VALUE. */
+    private static int bestEgressArrival(List<WalkingEdge> egressEdges, int[] earliestArrival) {
+        int best = Integer.MAX_VALUE;
+        for (WalkingEdge egress : egressEdges) {
+            int stop = egress.getFromStopId();
+            if (stop < 0 || stop >= earliestArrival.length) continue;
+            int arrival = earliestArrival[stop];
+            if (arrival == Integer.MAX_VALUE) continue;
+            best = Math.min(best, arrival + egress.getDurationMinutes());
+        }
+        return best;
+    }
+
+    private static List<Connection> buildConnections(Map<String, Trip> trips, QueryPreferences preferences,
+                                                     SearchStats stats) {
         List<Connection> connections = new ArrayList<>();
         for (Trip trip : trips.values()) {
             if (trip == null) continue;
+            if (stats != null) stats.tripsInspected++;
             String mode = trip.getMode();
             if (!preferences.allowsMode(mode)) continue;
 
@@ -167,7 +270,7 @@ public final class CSAEngine {
         return connections;
     }
 
-    private static void propagateFootpaths(int originStop,
+    private static int propagateFootpaths(int originStop,
                                            int originArrival,
                                            double originTotalWalk,
                                            double originConsecutiveWalk,
@@ -177,8 +280,10 @@ public final class CSAEngine {
                                            double[] totalWalk,
                                            double[] consecutiveWalk,
                                            Map<Integer, Predecessor> predecessor,
-                                           int targetStop) {
-        if (walkingEdges == null || walkingEdges.isEmpty()) return;
+                                           int[] egressMinutes,
+                                           SearchStats stats) {
+        int bestTarget = Integer.MAX_VALUE;
+        if (walkingEdges == null || walkingEdges.isEmpty()) return bestTarget;
 
         Double maxSingleWalk = preferences.getMaxSingleWalkKm();
         double maxTotal = preferences.getMaxCumulativeWalkKm();
@@ -193,6 +298,7 @@ public final class CSAEngine {
             if (neighbors.isEmpty()) continue;
 
             for (WalkingEdge edge : neighbors) {
+                if (stats != null) stats.footpathRelaxations++;
                 double segmentDistance = edge.getDistanceKm();
                 if (maxSingleWalk != null && segmentDistance > maxSingleWalk + EPS) continue;
 
@@ -225,13 +331,14 @@ public final class CSAEngine {
                             true,
                             segmentDistance,
                             "WALK"));
+                    if (stats != null) stats.labelsImproved++;
+                    bestTarget = Math.min(bestTarget, targetArrival(toStop, arrivalTime, egressMinutes));
 
-                    if (toStop != targetStop) {
-                        queue.addLast(new WalkState(toStop, arrivalTime, newTotalWalk, newConsecutiveWalk));
-                    }
+                    queue.addLast(new WalkState(toStop, arrivalTime, newTotalWalk, newConsecutiveWalk));
                 }
             }
         }
+        return bestTarget;
     }
 
     private static boolean isBetterState(int newArrival,
@@ -253,9 +360,15 @@ public final class CSAEngine {
     }
 
     private static int computeStopCount(Map<Integer, StopLocation> stopDetails,
-                                        int sourceStop,
-                                        int targetStop) {
-        int maxId = Math.max(sourceStop, targetStop);
+                                        List<WalkingEdge> accessEdges,
+                                        List<WalkingEdge> egressEdges) {
+        int maxId = 0;
+        for (WalkingEdge access : accessEdges) {
+            maxId = Math.max(maxId, access.getToStopId());
+        }
+        for (WalkingEdge egress : egressEdges) {
+            maxId = Math.max(maxId, egress.getFromStopId());
+        }
         if (stopDetails != null && !stopDetails.isEmpty()) {
             for (Integer id : stopDetails.keySet()) {
                 if (id != null && id > maxId) {
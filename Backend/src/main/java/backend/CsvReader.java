@@ -0,0 +1,166 @@
+package backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Streaming CSV reader that holds one row at a time. Input is read through a fixed char buffer
+ * and the current row's fields live in a buffer that is reused for every row, so memory stays
+ * flat however large the file is. Fields follow RFC 4180 quoting: a field that starts with a
+ * double quote may contain commas, line breaks and doubled quotes. Unquoted fields are taken as
+ * written, and rows end at {@code \n}, {@code \r\n} or {@code \r}. A blank line is a row with one
+ * empty field, matching {@code line.split(",", -1)}.
+ *
+ * <pre>
+ * try (CsvReader csv = CsvReader.open(file)) {
+ *     while (csv.next()) {
+ *         String first = csv.get(0);
+ *     }
+ * }
+ * </pre>
+ */
+public final class CsvReader implements Closeable {
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_CHARS];
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    private char[] field = new char[128];
+    private int fieldLength;
+    private String[] fields = new String[16];
+    private int size;
+    private int rowNumber = -1;
+
+    public CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    /** Opens a UTF-8 file for reading; malformed bytes are replaced rather than rejected. */
+    public static CsvReader open(Path file) throws IOException {
+        return new CsvReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    /** Advances to the next row; returns false once the input is exhausted. */
+    public boolean next() throws IOException {
+        size = 0;
+        fieldLength = 0;
+        int c = read();
+        if (c < 0) {
+            return false;
+        }
+        rowNumber++;
+        boolean quoted = false;
+        boolean fieldStart = true;
+        while (true) {
+            if (quoted) {
+                if (c < 0) {
+                    // Unterminated quote: keep what was read rather than dropping the row.
+                    endField();
+                    return true;
+                }
+                if (c == '"') {
+                    int following = peek();
+                    if (following == '"') {
+                        read();
+                        append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    append((char) c);
+                }
+            } else if (c < 0 || c == '\n') {
+                endField();
+                return true;
+            } else if (c == '\r') {
+                if (peek() == '\n') read();
+                endField();
+                return true;
+            } else if (c == ',') {
+                endField();
+                fieldStart = true;
+                c = read();
+                continue;
+            } else if (c == '"' && fieldStart) {
+                quoted = true;
+            } else {
+                append((char) c);
+            }
+            fieldStart = false;
+            c = read();
+        }
+    }
+
+    /** Number of fields in the current row. */
+    public int size() {
+        return size;
+    }
+
+    /** Field {@code index} of the current row, or null when the row is shorter. */
+    public String get(int index) {
+        return index < size ? fields[index] : null;
+    }
+
+    /** Copy of the current row's fields, for rows that must outlive the next call to {@link #next}. */
+    public String[] toArray() {
+        return Arrays.copyOf(fields, size);
+    }
+
+    /** Zero-based index of the current row; the header is row 0. */
+    public int rowNumber() {
+        return rowNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void append(char c) {
+        if (fieldLength == field.length) {
+            field = Arrays.copyOf(field, field.length * 2);
+        }
+        field[fieldLength++] = c;
+    }
+
+    private void endField() {
+        if (size == fields.length) {
+            fields = Arrays.copyOf(fields, fields.length * 2);
+        }
+        fields[size++] = new String(field, 0, fieldLength);
+        fieldLength = 0;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) return -1;
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) return -1;
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) return false;
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            eof = read < 0;
+            position = 0;
+            limit = 0;
+            return !eof && fill();
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+}
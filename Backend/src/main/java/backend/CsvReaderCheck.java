@@ -0,0 +1,100 @@
+package backend;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs {@link CsvReader} over edge cases of quoting and line endings and checks the rows it
+ * returns. Each case is read twice: in one go, and one character per read so that every quote
+ * and line break also falls on a buffer boundary.
+ *
+ * <pre>java backend.CsvReaderCheck</pre>
+ *
+ * Prints each failing case and exits with status 1 if there are any.
+ */
+public class CsvReaderCheck {
+    public static void main(String[] args) throws IOException {
+        List<String> failures = new ArrayList<>();
+        check(failures, "plain rows", "a,b\nc,d\n", rows(row("a", "b"), row("c", "d")));
+        check(failures, "no final line break", "a,b\nc,d", rows(row("a", "b"), row("c", "d")));
+        check(failures, "quoted comma", "a,\"b,c\",d\n", rows(row("a", "b,c", "d")));
+        check(failures, "quoted line breaks", "\"one\ntwo\",x\n\"three\r\nfour\",y\n",
+                rows(row("one\ntwo", "x"), row("three\r\nfour", "y")));
+        check(failures, "doubled quotes", "\"say \"\"hi\"\"\",y\n", rows(row("say \"hi\"", "y")));
+        check(failures, "empty quoted field", "a,\"\",b\n\"\"\n", rows(row("a", "", "b"), row("")));
+        check(failures, "trailing CRLF", "a,b\r\nc,d\r\n", rows(row("a", "b"), row("c", "d")));
+        check(failures, "bare CR", "a,b\rc,d\r", rows(row("a", "b"), row("c", "d")));
+        check(failures, "blank line", "a,b\n\nc,d\n", rows(row("a", "b"), row(""), row("c", "d")));
+        check(failures, "empty fields", ",a,,\n", rows(row("", "a", "", "")));
+        check(failures, "EOF inside quote", "a,\"unterminated\nstill", rows(row("a", "unterminated\nstill")));
+        check(failures, "quote inside unquoted field", "ab\"c,d\n", rows(row("ab\"c", "d")));
+        check(failures, "empty input", "", rows());
+
+        if (failures.isEmpty()) {
+            System.out.println("CsvReader: all cases passed");
+            return;
+        }
+        failures.forEach(System.out::println);
+        System.exit(1);
+    }
+
+    private static void check(List<String> failures, String name, String input, List<List<String>> expected)
+            throws IOException {
+        compare(failures, name, expected, readAll(new StringReader(input)));
+        compare(failures, name + " (one char per read)", expected, readAll(new OneCharReader(input)));
+    }
+
+    private static void compare(List<String> failures, String name, List<List<String>> expected, List<List<String>> actual) {
+        if (!expected.equals(actual)) {
+            failures.add("FAIL " + name + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static List<List<String>> readAll(Reader in) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        try (CsvReader csv = new CsvReader(in)) {
+            while (csv.next()) {
+                rows.add(Arrays.asList(csv.toArray()));
+            }
+        }
+        return rows;
+    }
+
+    private static String[] row(String... fields) {
+        return fields;
+    }
+
+    private static List<List<String>> rows(String[]... rows) {
+        List<List<String>> expected = new ArrayList<>();
+        for (String[] fields : rows) {
+            expected.add(Arrays.asList(fields));
+        }
+        return expected;
+    }
+
+    /** Hands out at most one character per read. */
+    private static final class OneCharReader extends Reader {
+        private final String text;
+        private int position;
+
+        OneCharReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == text.length()) return -1;
+            if (length == 0) return 0;
+            buffer[offset] = text.charAt(position++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
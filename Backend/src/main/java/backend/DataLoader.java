@@ -1,9 +1,11 @@
 package backend;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class DataLoader {
@@ -23,6 +25,11 @@ public class DataLoader {
 
     private static final double EARTH_RADIUS_KM = 6371.0;
     private static final double WALKING_SPEED_KMH = 5.0;
+    private static final double SPATIAL_INDEX_CELL_KM = 0.25;
+    /** Grid over stop coordinates for nearest/within-radius lookups; reset whenever a stop is created. */
+    private volatile StopSpatialIndex spatialIndex;
+    /** Token/trigram index over stop names; reset whenever a stop is created. */
+    private volatile StopNameIndex nameIndex;
 
     private void storeStationCoordinate(String rawName, double lat, double lon) {
         if (rawName == null) return;
@@ -40,21 +47,6 @@ public class DataLoader {
     private Set<String> standaloneStations = new HashSet<>();
     private int stopCounter = 0;
 
-    // ============= Generic CSV Loader =============
-    /** Reads a CSV file from disk while preserving empty columns for downstream loaders. */
-
-    public List<String[]> loadCSV(String filePath) throws IOException {
-        List<String[]> rows = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(",", -1);
-                rows.add(values);
-            }
-        }
-        return rows;
-    }
-
     // ============= Station Coordinates Loader =============
     /** Parses the station coordinate CSV and seeds lookup maps for trains and standalone stations. */
 
@@ -63,30 +55,30 @@ public class DataLoader {
         stationIdMap.clear();
         standaloneStations.clear();
 
-        List<String[]> rows = loadCSV(filePath);
-        if (rows.isEmpty()) return;
-
-        for (int r = 1; r < rows.size(); r++) {
-            String[] row = rows.get(r);
-            if (row.length >= 4) {
-                String stationName = row[0].trim().toUpperCase();
-                String stationId = row[1].trim().toUpperCase();
-                String latStr = row[2].trim();
-                String lonStr = row[3].trim();
-
-                if (!latStr.isEmpty() && !lonStr.isEmpty()) {
-                    try {
-                        double lat = Double.parseDouble(latStr);
-                        double lon = Double.parseDouble(lonStr);
-                        storeStationCoordinate(stationName, lat, lon);
-                        stationIdMap.put(stationId, new double[]{lat, lon});
-                    } catch (NumberFormatException e) {
-                        // Ignore invalid coords
+        try (CsvReader row = CsvReader.open(Paths.get(filePath))) {
+            if (!row.next()) return;
+
+            while (row.next()) {
+                if (row.size() >= 4) {
+                    String stationName = row.get(0).trim().toUpperCase();
+                    String stationId = row.get(1).trim().toUpperCase();
+                    String latStr = row.get(2).trim();
+                    String lonStr = row.get(3).trim();
+
+                    if (!latStr.isEmpty() && !lonStr.isEmpty()) {
+                        try {
+                            double lat = Double.parseDouble(latStr);
+                            double lon = Double.parseDouble(lonStr);
+                            storeStationCoordinate(stationName, lat, lon);
+                            stationIdMap.put(stationId, new double[]{lat, lon});
+                        } catch (NumberFormatException e) {
+                            // Ignore invalid coords
+                        }
                     }
+                } else if (row.size() >= 1) {
+                    String stationName = row.get(0).trim().toUpperCase();
+                    if (!stationName.isEmpty()) standaloneStations.add(stationName);
                 }
-            } else if (row.length >= 1) {
-                String stationName = row[0].trim().toUpperCase();
-                if (!stationName.isEmpty()) standaloneStations.add(stationName);
             }
         }
     }
@@ -94,35 +86,48 @@ public class DataLoader {
     /** Loads MyCiTi stop coordinates and stores them for later stop matching. */
 
     public void loadBusStopCoordinates(String filePath) throws IOException {
-        List<String[]> rows = loadCSV(filePath);
-        if (rows.isEmpty()) return;
-
-        for (int r = 1; r < rows.size(); r++) {
-            String[] row = rows.get(r);
-            if (row.length < 4) continue;
-
-            String name = row[1].trim().toUpperCase();
-            String lonStr = row[2].trim();
-            String latStr = row[3].trim();
-
-            if (name.isEmpty() || lonStr.isEmpty() || latStr.isEmpty()) continue;
-            try {
-                double lon = Double.parseDouble(lonStr);
-                double lat = Double.parseDouble(latStr);
-                storeStationCoordinate(name, lat, lon);
-            } catch (NumberFormatException ignored) {
-                // skip malformed entries
+        try (CsvReader row = CsvReader.open(Paths.get(filePath))) {
+            if (!row.next()) return;
+
+            while (row.next()) {
+                if (row.size() < 4) continue;
+
+                String name = row.get(1).trim().toUpperCase();
+                String lonStr = row.get(2).trim();
+                String latStr = row.get(3).trim();
+
+                if (name.isEmpty() || lonStr.isEmpty() || latStr.isEmpty()) continue;
+                try {
+                    double lon = Double.parseDouble(lonStr);
+                    double lat = Double.parseDouble(latStr);
+                    storeStationCoordinate(name, lat, lon);
+                } catch (NumberFormatException ignored) {
+                    // skip malformed entries
+                }
             }
         }
     }
 
-    /** Extracts Golden Arrow stop coordinates using header-driven indices. */
+    /**
+     * Extracts Golden Arrow stop coordinates using header-driven indices. A missing file is
+     * reported and skipped; Golden Arrow routes are then dropped for lack of coordinates.
+     */
 
     public void loadGABusStopCoordinates(String filePath) throws IOException {
-        List<String[]> rows = loadCSV(filePath);
-        if (rows.isEmpty()) return;
+        Path file = Paths.get(filePath);
+        if (!Files.exists(file)) {
+            System.out.println("[WARN] Golden Arrow stop coordinates not found: " + filePath);
+            return;
+        }
+        try (CsvReader row = CsvReader.open(file)) {
+            if (row.next()) {
+                loadGABusStopRows(row);
+            }
+        }
+    }
 
-        String[] headers = rows.get(0);
+    private void loadGABusStopRows(CsvReader row) throws IOException {
+        String[] headers = row.toArray();
         int nameIdx = -1;
         int lonIdx = -1;
         int latIdx = -1;
@@ -141,13 +146,12 @@ public class DataLoader {
         if (nameIdx == -1 || lonIdx == -1 || latIdx == -1) return;
 
         int maxIdx = Math.max(nameIdx, Math.max(lonIdx, latIdx));
-        for (int r = 1; r < rows.size(); r++) {
-            String[] row = rows.get(r);
-            if (row.length <= maxIdx) continue;
+        while (row.next()) {
+            if (row.size() <= maxIdx) continue;
 
-            String name = row[nameIdx] != null ? row[nameIdx].trim().toUpperCase(Locale.ROOT) : "";
-            String lonStr = row[lonIdx] != null ? row[lonIdx].trim() : "";
-            String latStr = row[latIdx] != null ? row[latIdx].trim() : "";
+            String name = row.get(nameIdx).trim().toUpperCase(Locale.ROOT);
+            String lonStr = row.get(lonIdx).trim();
+            String latStr = row.get(latIdx).trim();
 
             if (name.isEmpty() || lonStr.isEmpty() || latStr.isEmpty()) continue;
 
@@ -290,7 +294,12 @@ public class DataLoader {
         String normalized = stopName.trim().toUpperCase();
         if (stops.containsKey(normalized)) return stops.get(normalized);
 
-        double[] coords = findCoordinates(normalized);
+        double[] coords = pendingCoordinates != null ? pendingCoordinates.get(normalized) : null;
+        if (coords == null) {
+            coords = findCoordinates(normalized);
+        } else if (coords == NO_COORDINATES) {
+            coords = null;
+        }
         double lat = (coords != null) ? coords[0] : 0.0;
         double lon = (coords != null) ? coords[1] : 0.0;
 
@@ -300,19 +309,111 @@ public class DataLoader {
         stops.put(normalized, stopIdx);
         stopDetails.put(stopIdx, location);
         stopNameToDetails.put(normalized, location);
+        spatialIndex = null;
+        nameIndex = null;
         return stopIdx;
     }
 
+    // ============= Schedule Parsing =============
+    /**
+     * One schedule file parsed into trips whose stops are still names. Parsing touches no shared
+     * state, so files can be parsed concurrently; {@link #mergeSchedules} then assigns stop ids.
+     */
+    public static final class ParsedSchedule {
+        private final boolean train;
+        private final String routeKey;
+        private final String operator;
+        private final List<ParsedTrip> trips = new ArrayList<>();
+
+        private ParsedSchedule(boolean train, String routeKey, String operator) {
+            this.train = train;
+            this.routeKey = routeKey;
+            this.operator = operator;
+        }
+    }
+
+    /** A trip's stop names and times in timetable column order. */
+    private static final class ParsedTrip {
+        private final String tripId;
+        private final String baseTripId;
+        private final String dayType;
+        private final String routeId;
+        private final String routeFileName;
+        private final boolean inbound;
+        private final List<String> stopNames = new ArrayList<>();
+        private final List<String> times = new ArrayList<>();
+
+        private ParsedTrip(String tripId, String baseTripId, String dayType, String routeId,
+                           String routeFileName, boolean inbound) {
+            this.tripId = tripId;
+            this.baseTripId = baseTripId;
+            this.dayType = dayType;
+            this.routeId = routeId;
+            this.routeFileName = routeFileName;
+            this.inbound = inbound;
+        }
+    }
+
+    /**
+     * Whether loading fans out across cores. On a single core the fork/join workers only compete
+     * with the JIT compiler, which made a cold load slower, so it stays sequential there.
+     */
+    static final boolean PARALLEL_LOAD = Runtime.getRuntime().availableProcessors() > 1;
+
+    /** Coordinates resolved ahead of a merge; {@link #NO_COORDINATES} marks names with none. */
+    private Map<String, double[]> pendingCoordinates;
+    private static final double[] NO_COORDINATES = new double[0];
+
+    /**
+     * Adds parsed schedules in list order, so stop ids and trip ids only depend on that order.
+     * Coordinates for the stops they introduce are looked up in parallel first; the lookup only
+     * reads the station tables, which do not change during a merge.
+     */
+    public void mergeSchedules(List<ParsedSchedule> schedules) {
+        Set<String> unseen = new LinkedHashSet<>();
+        for (ParsedSchedule schedule : schedules) {
+            for (ParsedTrip trip : schedule.trips) {
+                for (String name : trip.stopNames) {
+                    String normalized = name.trim().toUpperCase();
+                    if (!stops.containsKey(normalized)) unseen.add(normalized);
+                }
+            }
+        }
+        Map<String, double[]> resolved = new ConcurrentHashMap<>();
+        (PARALLEL_LOAD ? unseen.parallelStream() : unseen.stream()).forEach(name -> {
+            double[] coords = findCoordinates(name);
+            resolved.put(name, coords != null ? coords : NO_COORDINATES);
+        });
+
+        pendingCoordinates = resolved;
+        try {
+            for (ParsedSchedule schedule : schedules) {
+                if (schedule.train) {
+                    mergeTrainSchedule(schedule);
+                } else {
+                    mergeBusSchedule(schedule);
+                }
+            }
+        } finally {
+            pendingCoordinates = null;
+        }
+    }
+
     // ============= Train Loader =============
     /** Transforms train CSV rows into Trip instances and stop-time sequences. */
 
-    public void buildTrainData(List<String[]> rows) {
-        if (rows.isEmpty()) return;
-        String[] headers = rows.get(0);
+    public void buildTrainData(CsvReader rows) throws IOException {
+        mergeSchedules(List.of(parseTrainSchedule(rows)));
+    }
+
+    /** Reads train CSV rows into trips without touching the loader's maps. */
+    public ParsedSchedule parseTrainSchedule(CsvReader row) throws IOException {
+        ParsedSchedule schedule = new ParsedSchedule(true, null, null);
+        if (!row.next()) return schedule;
+        String[] headers = row.toArray();
 
-        for (int r = 1; r < rows.size(); r++) {
-            String[] row = rows.get(r);
-            if (row.length < 4) continue;
+        while (row.next()) {
+            if (row.size() < 4) continue;
 
             String baseTripID = safeValue(row, 0);
             String rawDayType = safeValue(row, 1);
@@ -323,31 +424,45 @@ public class DataLoader {
             if (routeID == null) continue;
             String tripID = baseTripID + "_" + normalizedDayType;
 
-            Trip trip = new TrainTrip(tripID, baseTripID, normalizedDayType, routeID);
-            routes.putIfAbsent(routeID, new ArrayList<>());
-            List<StopTime> stopTimes = new ArrayList<>();
-
-            for (int c = 4; c < row.length; c++) {
+            ParsedTrip trip = new ParsedTrip(tripID, baseTripID, normalizedDayType, routeID, null,
+                    "inbound".equalsIgnoreCase(direction));
+            for (int c = 4; c < row.size(); c++) {
                 String col = headers[c];
-                String raw = row[c] != null ? row[c].trim() : "";
+                String raw = row.get(c).trim();
                 if (!raw.isEmpty()) {
-                    String stopName = col.trim().toUpperCase();
-                    int stopID = createStop(stopName);
-                    flagRouteIfInvalidCoordinates(routeID, stopID);
-                    stopTimes.add(new StopTime(stopID, raw));
-
-                    if (!routes.get(routeID).contains(stopID)) routes.get(routeID).add(stopID);
-                    stopToRoutes.putIfAbsent(stopID, new ArrayList<>());
-                    if (!stopToRoutes.get(stopID).contains(routeID)) stopToRoutes.get(stopID).add(routeID);
+                    trip.stopNames.add(col.trim().toUpperCase());
+                    trip.times.add(raw);
                 }
             }
+            schedule.trips.add(trip);
+        }
+        return schedule;
+    }
+
+    private void mergeTrainSchedule(ParsedSchedule schedule) {
+        if (schedule.trips.isEmpty()) return;
+        for (ParsedTrip parsed : schedule.trips) {
+            String routeID = parsed.routeId;
+            Trip trip = new TrainTrip(parsed.tripId, parsed.baseTripId, parsed.dayType, routeID);
+            routes.putIfAbsent(routeID, new ArrayList<>());
+            List<StopTime> stopTimes = new ArrayList<>();
+
+            for (int i = 0; i < parsed.stopNames.size(); i++) {
+                int stopID = createStop(parsed.stopNames.get(i));
+                flagRouteIfInvalidCoordinates(routeID, stopID);
+                stopTimes.add(new StopTime(stopID, parsed.times.get(i)));
+
+                if (!routes.get(routeID).contains(stopID)) routes.get(routeID).add(stopID);
+                stopToRoutes.putIfAbsent(stopID, new ArrayList<>());
+                if (!stopToRoutes.get(stopID).contains(routeID)) stopToRoutes.get(stopID).add(routeID);
+            }
 
-            if ("inbound".equalsIgnoreCase(direction)) Collections.reverse(stopTimes);
+            if (parsed.inbound) Collections.reverse(stopTimes);
             trip.times.addAll(stopTimes);
-            trips.put(tripID, trip);
+            trips.put(parsed.tripId, trip);
         }
 
-        // ÃƒÆ’Ã†â€™Ãƒâ€ Ã¢â‚¬â„¢ÃƒÆ’Ã¢â‚¬Â ÃƒÂ¢Ã¢â€šÂ¬Ã¢â€žÂ¢ÃƒÆ’Ã†â€™ÃƒÂ¢Ã¢â€šÂ¬Ã…Â¡ÃƒÆ’Ã¢â‚¬Å¡Ãƒâ€šÃ‚Â¢ÃƒÆ’Ã†â€™Ãƒâ€ Ã¢â‚¬â„¢ÃƒÆ’Ã‚Â¢ÃƒÂ¢Ã¢â‚¬Å¡Ã‚Â¬Ãƒâ€šÃ‚Â¦ÃƒÆ’Ã†â€™Ãƒâ€šÃ‚Â¢ÃƒÆ’Ã‚Â¢ÃƒÂ¢Ã¢â€šÂ¬Ã…Â¡Ãƒâ€šÃ‚Â¬ÃƒÆ’Ã¢â‚¬Â¦ÃƒÂ¢Ã¢â€šÂ¬Ã…â€œÃƒÆ’Ã†â€™Ãƒâ€ Ã¢â‚¬â„¢ÃƒÆ’Ã¢â‚¬Å¡Ãƒâ€šÃ‚Â¢ÃƒÆ’Ã†â€™Ãƒâ€šÃ‚Â¢ÃƒÆ’Ã‚Â¢ÃƒÂ¢Ã¢â‚¬Å¡Ã‚Â¬Ãƒâ€¦Ã‚Â¡ÃƒÆ’Ã¢â‚¬Å¡Ãƒâ€šÃ‚Â¬ÃƒÆ’Ã†â€™ÃƒÂ¢Ã¢â€šÂ¬Ã…Â¡ÃƒÆ’Ã¢â‚¬Å¡Ãƒâ€šÃ‚Â¦ Debug print for trip distribution by normalized dayType
+        // Debug print for trip distribution by normalized dayType
         Map<String, Long> dayTypeCounts = trips.values().stream()
                 .collect(Collectors.groupingBy(t -> t.dayType, Collectors.counting()));
         System.out.println("[DEBUG] Trips loaded per dayType: " + dayTypeCounts);
@@ -356,24 +471,31 @@ public class DataLoader {
     // ============= Bus Loader =============
 /**
      * Ingests a bus schedule CSV into the unified transit dataset.
-     * @param rows parsed CSV rows where columns contain stop names and times.
+     * @param rows CSV reader positioned before the header; columns contain stop names and times.
      * @param routeFileName source filename used to derive the route identifier.
      * @param operatorLabel label for the agency operating this file (e.g., MyCiTi or Golden Arrow).
      */
-    public void buildBusData(List<String[]> rows, String routeFileName, String operatorLabel) {
-        if (rows.isEmpty()) return;
+    public void buildBusData(CsvReader rows, String routeFileName, String operatorLabel) throws IOException {
+        ParsedSchedule schedule = parseBusSchedule(rows, routeFileName, operatorLabel);
+        if (schedule != null) {
+            mergeSchedules(List.of(schedule));
+        }
+    }
+
+    /**
+     * Reads bus CSV rows into trips without touching the loader's maps, interpolating VIA
+     * times. Returns null for files that contribute nothing (no rows or no usable route id).
+     */
+    public ParsedSchedule parseBusSchedule(CsvReader row, String routeFileName, String operatorLabel) throws IOException {
+        if (!row.next()) return null;
 
-        String routeKey = normalizeRouteId(routeFileName.replace(".csv", "").toUpperCase(Locale.ROOT));
+        String routeKey = busRouteKey(routeFileName);
         if (routeKey == null) {
-            return;
-        }
-        routes.putIfAbsent(routeKey, new ArrayList<>());
-        String normalizedOperator = normalizeOperatorLabel(operatorLabel);
-        if (normalizedOperator != null) {
-            routeOperators.put(routeKey, normalizedOperator);
+            return null;
         }
+        ParsedSchedule schedule = new ParsedSchedule(false, routeKey, normalizeOperatorLabel(operatorLabel));
 
-        String[] headers = rows.get(0);
+        String[] headers = row.toArray();
         boolean hasRouteNumberColumn = headers.length > 0 && headers[0] != null && headers[0].trim().equalsIgnoreCase("route_number");
         boolean hasDayTypeOnly = headers.length > 0 && headers[0] != null && headers[0].trim().equalsIgnoreCase("day_type");
 
@@ -381,9 +503,8 @@ public class DataLoader {
         int dayTypeIndex = includeRouteNumber ? 1 : 0;
         int dataStartIndex = includeRouteNumber ? 2 : 1;
 
-        for (int r = 1; r < rows.size(); r++) {
-            String[] row = rows.get(r);
-            if (row.length <= dayTypeIndex) continue;
+        while (row.next()) {
+            if (row.size() <= dayTypeIndex) continue;
 
             String routeNumber = includeRouteNumber ? safeValue(row, 0) : routeKey;
             String rawDayType = safeValue(row, dayTypeIndex);
@@ -391,24 +512,45 @@ public class DataLoader {
 
             String normalizedDayType = normalizeDayType(rawDayType);
             String tripPrefix = includeRouteNumber ? "BUS" : "GABS";
-            String tripId = String.format(Locale.ROOT, "%s_%s_%s_%d", tripPrefix, routeKey, normalizedDayType, r);
+            String tripId = String.format(Locale.ROOT, "%s_%s_%s_%d", tripPrefix, routeKey, normalizedDayType, row.rowNumber());
+
+            ParsedTrip trip = new ParsedTrip(tripId, routeNumber.isEmpty() ? routeKey : routeNumber,
+                    normalizedDayType, routeKey, routeFileName, false);
+            parseStopTimesWithEstimation(headers, row, dataStartIndex, trip);
+            schedule.trips.add(trip);
+        }
+        return schedule;
+    }
+
+    private void mergeBusSchedule(ParsedSchedule schedule) {
+        String routeKey = schedule.routeKey;
+        routes.putIfAbsent(routeKey, new ArrayList<>());
+        if (schedule.operator != null) {
+            routeOperators.put(routeKey, schedule.operator);
+        }
+        List<Integer> routeStops = routes.get(routeKey);
+
+        for (ParsedTrip parsed : schedule.trips) {
+            BusTrip trip = new BusTrip(parsed.tripId, parsed.baseTripId, parsed.dayType, routeKey, parsed.routeFileName);
+            for (int i = 0; i < parsed.stopNames.size(); i++) {
+                int stopId = createStop(parsed.stopNames.get(i));
+                flagRouteIfInvalidCoordinates(routeKey, stopId);
+                trip.times.add(new StopTime(stopId, parsed.times.get(i)));
 
-            BusTrip trip = new BusTrip(tripId, routeNumber.isEmpty() ? routeKey : routeNumber, normalizedDayType, routeKey, routeFileName);
+                if (!routeStops.contains(stopId)) routeStops.add(stopId);
 
-            List<StopTime> stopTimes = buildStopTimesWithEstimation(headers, row, dataStartIndex, routeKey);
-            if (!stopTimes.isEmpty()) {
-                trip.times.addAll(stopTimes);
-                trips.put(tripId, trip);
+                stopToRoutes.computeIfAbsent(stopId, k -> new ArrayList<>());
+                if (!stopToRoutes.get(stopId).contains(routeKey)) stopToRoutes.get(stopId).add(routeKey);
+            }
+            if (!trip.times.isEmpty()) {
+                trips.put(parsed.tripId, trip);
             }
         }
     }
 
-    /** Builds stop times for a bus route, interpolating VIA gaps where necessary. */
-
-    private List<StopTime> buildStopTimesWithEstimation(String[] headers, String[] row, int startColumn, String routeKey) {
-        List<StopTime> stopTimes = new ArrayList<>();
-        List<Integer> routeStops = routes.get(routeKey);
+    /** Collects a bus trip's stops and times, interpolating VIA gaps where necessary. */
 
+    private void parseStopTimesWithEstimation(String[] headers, CsvReader row, int startColumn, ParsedTrip trip) {
         List<String> stopNames = new ArrayList<>();
         List<String> rawValues = new ArrayList<>();
 
@@ -419,7 +561,7 @@ public class DataLoader {
             if (stopName.isEmpty()) continue;
 
             stopNames.add(stopName);
-            String value = c < row.length && row[c] != null ? row[c].trim() : "";
+            String value = c < row.size() ? row.get(c).trim() : "";
             rawValues.add(value);
         }
 
@@ -441,20 +583,9 @@ public class DataLoader {
 
         for (int i = 0; i < size; i++) {
             if (minutes[i] == null) continue;
-
-            String stopName = stopNames.get(i).trim().toUpperCase(Locale.ROOT);
-            int stopId = createStop(stopName);
-            flagRouteIfInvalidCoordinates(routeKey, stopId);
-            String timeValue = minutesToTime(minutes[i]);
-            stopTimes.add(new StopTime(stopId, timeValue));
-
-            if (!routeStops.contains(stopId)) routeStops.add(stopId);
-
-            stopToRoutes.computeIfAbsent(stopId, k -> new ArrayList<>());
-            if (!stopToRoutes.get(stopId).contains(routeKey)) stopToRoutes.get(stopId).add(routeKey);
+            trip.stopNames.add(stopNames.get(i).trim().toUpperCase(Locale.ROOT));
+            trip.times.add(minutesToTime(minutes[i]));
         }
-
-        return stopTimes;
     }
 
     /** Fills in VIA-labelled timetable gaps by interpolating between known times. */
@@ -558,10 +689,9 @@ public class DataLoader {
 
     /** Safely pulls a trimmed column value or returns an empty string when missing. */
 
-    private String safeValue(String[] row, int idx) {
-        if (idx < 0 || idx >= row.length) return "";
-        String value = row[idx];
-        return value == null ? "" : value.trim();
+    private String safeValue(CsvReader row, int idx) {
+        if (idx < 0 || idx >= row.size()) return "";
+        return row.get(idx).trim();
     }
 
     // ============= Walking Edge Builder =============
@@ -607,10 +737,46 @@ public class DataLoader {
     public void buildWalkingEdges(double maxDistanceKm) {
         walkingEdges.clear();
 
-        List<StopLocation> locations = stopDetails.values().stream()
-                .filter(loc -> hasValidCoordinates(loc.getLat(), loc.getLon()))
-                .collect(Collectors.toList());
+        List<StopLocation> locations = walkableStops();
+
+        if (!locations.isEmpty() && maxDistanceKm > 0.0) {
+            // Position in the scan order decides edge order and which end the distance is measured from.
+            Map<Integer, Integer> positions = new HashMap<>(locations.size() * 2);
+            for (int i = 0; i < locations.size(); i++) {
+                positions.put(locations.get(i).getID(), i);
+            }
+
+            // Cells as wide as the walk radius: every candidate pair sits in neighbouring cells.
+            StopSpatialIndex grid = new StopSpatialIndex(locations, maxDistanceKm);
+            List<List<WalkingEdge>> edgesByPosition = new ArrayList<>(Collections.nCopies(locations.size(), null));
+            Collection<StopLocation[]> cells = grid.occupiedCells();
+            (PARALLEL_LOAD ? cells.parallelStream() : cells.stream()).forEach(cell -> {
+                for (StopLocation stop : cell) {
+                    int position = positions.get(stop.getID());
+                    edgesByPosition.set(position, walkingEdgesFrom(stop, position, grid, positions, maxDistanceKm));
+                }
+            });
+
+            for (List<WalkingEdge> edges : edgesByPosition) {
+                if (edges != null && !edges.isEmpty()) {
+                    walkingEdges.put(edges.get(0).getFromStopId(), edges);
+                }
+            }
+        }
 
+        int totalEdges = walkingEdges.values().stream().mapToInt(List::size).sum();
+        System.out.println("[DEBUG] Walking edges built: " + totalEdges);
+    }
+
+    /**
+     * The walking edges {@link #buildWalkingEdges} should produce, found by measuring every pair
+     * of stops. Far too slow for loading; {@link WalkingEdgeCheck} compares the grid build with it.
+     */
+    Map<Integer, List<WalkingEdge>> allPairsWalkingEdges(double maxDistanceKm) {
+        Map<Integer, List<WalkingEdge>> edges = new HashMap<>();
+        if (maxDistanceKm <= 0.0) return edges;
+
+        List<StopLocation> locations = walkableStops();
         for (int i = 0; i < locations.size(); i++) {
             StopLocation a = locations.get(i);
             for (int j = i + 1; j < locations.size(); j++) {
@@ -621,24 +787,50 @@ public class DataLoader {
                         b.getLat(), b.getLon());
 
                 if (distanceKm == 0.0 || distanceKm > maxDistanceKm) continue;
-
                 int minutes = (int) Math.ceil((distanceKm / WALKING_SPEED_KMH) * 60.0);
                 if (minutes <= 0) minutes = 1;
-
-                addWalkingEdge(a.getID(), b.getID(), distanceKm, minutes);
-                addWalkingEdge(b.getID(), a.getID(), distanceKm, minutes);
+                edges.computeIfAbsent(a.getID(), k -> new ArrayList<>())
+                        .add(new WalkingEdge(a.getID(), b.getID(), minutes, distanceKm));
+                edges.computeIfAbsent(b.getID(), k -> new ArrayList<>())
+                        .add(new WalkingEdge(b.getID(), a.getID(), minutes, distanceKm));
             }
         }
+        return edges;
+    }
 
-        int totalEdges = walkingEdges.values().stream().mapToInt(List::size).sum();
-        System.out.println("[DEBUG] Walking edges built: " + totalEdges);
+    /** Stops with usable coordinates, in the scan order walking edges are built in. */
+    private List<StopLocation> walkableStops() {
+        return stopDetails.values().stream()
+                .filter(loc -> hasValidCoordinates(loc.getLat(), loc.getLon()))
+                .collect(Collectors.toList());
     }
 
-    /** Registers a directional walking edge with distance metadata. */
+    /** Walking edges leaving {@code stop}, ordered by the neighbour's scan position. */
+    private List<WalkingEdge> walkingEdgesFrom(StopLocation stop, int position, StopSpatialIndex grid,
+                                               Map<Integer, Integer> positions, double maxDistanceKm) {
+        List<StopLocation> neighbours = grid.neighborhood(stop);
+        neighbours.sort(Comparator.comparingInt(other -> positions.get(other.getID())));
+
+        List<WalkingEdge> edges = new ArrayList<>();
+        for (StopLocation other : neighbours) {
+            int otherPosition = positions.get(other.getID());
+            if (otherPosition == position) continue;
+
+            // Measure from the earlier stop so both directions share the exact same distance.
+            StopLocation a = otherPosition < position ? other : stop;
+            StopLocation b = otherPosition < position ? stop : other;
+            double distanceKm = haversineDistance(
+                    a.getLat(), a.getLon(),
+                    b.getLat(), b.getLon());
 
-    private void addWalkingEdge(int fromStopId, int toStopId, double distanceKm, int minutes) {
-        walkingEdges.computeIfAbsent(fromStopId, k -> new ArrayList<>())
-                .add(new WalkingEdge(fromStopId, toStopId, minutes, distanceKm));
+            if (distanceKm == 0.0 || distanceKm > maxDistanceKm) continue;
+
+            int minutes = (int) Math.ceil((distanceKm / WALKING_SPEED_KMH) * 60.0);
+            if (minutes <= 0) minutes = 1;
+
+            edges.add(new WalkingEdge(stop.getID(), other.getID(), minutes, distanceKm));
+        }
+        return edges;
     }
 
     private boolean hasValidCoordinates(double lat, double lon) {
@@ -661,6 +853,181 @@ public class DataLoader {
         return EARTH_RADIUS_KM * c;
     }
 
+    // ============= Snapshot Support =============
+    int stopCounter() {
+        return stopCounter;
+    }
+
+    Map<String, String> routeOperators() {
+        return routeOperators;
+    }
+
+    Map<String, double[]> stationNameMap() {
+        return stationNameMap;
+    }
+
+    Map<String, double[]> stationIdMap() {
+        return stationIdMap;
+    }
+
+    Set<String> standaloneStations() {
+        return standaloneStations;
+    }
+
+    /** Restores the private loading state saved by {@link TimetableSnapshot}; the public maps are set directly. */
+    void restoreSnapshotState(int stopCounter,
+                              Map<String, String> routeOperators,
+                              Collection<String> invalidRoutes,
+                              Map<String, double[]> stationNames,
+                              Map<String, double[]> stationIds,
+                              Collection<String> standaloneStations) {
+        this.stopCounter = stopCounter;
+        this.routeOperators.clear();
+        this.routeOperators.putAll(routeOperators);
+        this.invalidRoutes.clear();
+        this.invalidRoutes.addAll(invalidRoutes);
+        this.stationNameMap = new HashMap<>(stationNames);
+        this.stationIdMap = new HashMap<>(stationIds);
+        this.standaloneStations = new HashSet<>(standaloneStations);
+        spatialIndex = null;
+        nameIndex = null;
+    }
+
+    // ============= Incremental Changes =============
+    /** Route key a bus schedule file's trips are stored under, or null when its name has none. */
+    static String busRouteKey(String fileName) {
+        String key = fileName.replace(".csv", "").toUpperCase(Locale.ROOT).trim();
+        return key.isEmpty() ? null : key;
+    }
+
+    /**
+     * A loader sharing this one's stops, trips and edges, for applying a schedule change while
+     * this one keeps serving queries. The maps are copied shallowly; lists inside them are shared
+     * until {@link #replaceBusSchedule} copies the ones it changes, and this loader is never
+     * modified.
+     */
+    DataLoader copyForChange() {
+        DataLoader copy = new DataLoader();
+        copy.stops = new HashMap<>(stops);
+        copy.routes = new HashMap<>(routes);
+        copy.trips = new HashMap<>(trips);
+        copy.stopToRoutes = new HashMap<>(stopToRoutes);
+        copy.stopDetails = new HashMap<>(stopDetails);
+        copy.stopNameToDetails = new HashMap<>(stopNameToDetails);
+        copy.walkingEdges = new HashMap<>(walkingEdges);
+        copy.invalidRoutes.addAll(invalidRoutes);
+        copy.routeOperators.putAll(routeOperators);
+        // Station tables are only written while loading, so sharing them is safe.
+        copy.stationNameMap = stationNameMap;
+        copy.stationIdMap = stationIdMap;
+        copy.standaloneStations = standaloneStations;
+        copy.stopCounter = stopCounter;
+        return copy;
+    }
+
+    /**
+     * True when every trip stored under {@code routeKey} came from the bus file {@code fileName},
+     * so replacing that file's trips cannot touch another file's. Routes purged for missing
+     * coordinates have no trips left to check and never qualify.
+     */
+    boolean isOwnedByBusFile(String routeKey, String fileName) {
+        if (invalidRoutes.contains(routeKey)) return false;
+        for (Trip trip : trips.values()) {
+            if (routeKey.equals(trip.getRoute())
+                    && !(trip instanceof BusTrip bus && fileName.equals(bus.routeName))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the trips stored under {@code routeKey} with {@code schedule}, or just removes
+     * them when it is null, copying each shared list before changing it. Stops only the old
+     * trips used stay, without routes, like the stops of purged routes. Returns the stops
+     * this change created.
+     */
+    List<StopLocation> replaceBusSchedule(String routeKey, ParsedSchedule schedule) {
+        List<Integer> oldStops = routes.remove(routeKey);
+        if (oldStops != null) {
+            for (int stopId : oldStops) {
+                List<String> stopRoutes = stopToRoutes.get(stopId);
+                if (stopRoutes != null && stopRoutes.contains(routeKey)) {
+                    List<String> remaining = new ArrayList<>(stopRoutes);
+                    remaining.remove(routeKey);
+                    stopToRoutes.put(stopId, remaining);
+                }
+            }
+        }
+        trips.values().removeIf(trip -> routeKey.equals(trip.getRoute()));
+        routeOperators.remove(routeKey);
+        invalidRoutes.remove(routeKey);
+
+        int firstNewStop = stopCounter;
+        if (schedule != null) {
+            for (ParsedTrip trip : schedule.trips) {
+                for (String name : trip.stopNames) {
+                    Integer stopId = stops.get(name.trim().toUpperCase());
+                    if (stopId != null) {
+                        stopToRoutes.computeIfPresent(stopId, (id, list) -> new ArrayList<>(list));
+                    }
+                }
+            }
+            mergeSchedules(List.of(schedule));
+            if (invalidRoutes.contains(routeKey)) {
+                purgeInvalidRoutes();
+            }
+        }
+
+        List<StopLocation> created = new ArrayList<>();
+        for (int stopId = firstNewStop; stopId < stopCounter; stopId++) {
+            created.add(stopDetails.get(stopId));
+        }
+        return created;
+    }
+
+    /**
+     * Adds walking edges in both directions between each of {@code newStops} and the stops
+     * within {@code maxDistanceKm}, leaving the edges among existing stops as they are. A
+     * neighbour's edge list is copied before it is extended.
+     */
+    void addWalkingEdges(Collection<StopLocation> newStops, double maxDistanceKm) {
+        if (newStops.isEmpty() || maxDistanceKm <= 0.0) return;
+        Set<Integer> newIds = new HashSet<>();
+        for (StopLocation stop : newStops) {
+            newIds.add(stop.getID());
+        }
+        Set<Integer> copied = new HashSet<>();
+        StopSpatialIndex index = spatialIndex();
+        int added = 0;
+        for (StopLocation stop : newStops) {
+            if (!hasValidCoordinates(stop.getLat(), stop.getLon())) continue;
+            for (StopSpatialIndex.Neighbor neighbor : index.withinRadius(stop.getLat(), stop.getLon(), maxDistanceKm)) {
+                StopLocation other = neighbor.getStop();
+                if (other.getID() == stop.getID()) continue;
+                // Pairs of new stops are met from both ends; only the later one adds the pair.
+                if (other.getID() > stop.getID() && newIds.contains(other.getID())) continue;
+                double distanceKm = haversineDistance(stop.getLat(), stop.getLon(), other.getLat(), other.getLon());
+                if (distanceKm == 0.0 || distanceKm > maxDistanceKm) continue;
+
+                int minutes = (int) Math.ceil((distanceKm / WALKING_SPEED_KMH) * 60.0);
+                if (minutes <= 0) minutes = 1;
+                ownedEdges(stop.getID(), copied).add(new WalkingEdge(stop.getID(), other.getID(), minutes, distanceKm));
+                ownedEdges(other.getID(), copied).add(new WalkingEdge(other.getID(), stop.getID(), minutes, distanceKm));
+                added += 2;
+            }
+        }
+        System.out.println("[DEBUG] Walking edges added for " + newStops.size() + " new stops: " + added);
+    }
+
+    private List<WalkingEdge> ownedEdges(int stopId, Set<Integer> copied) {
+        if (copied.add(stopId)) {
+            List<WalkingEdge> existing = walkingEdges.get(stopId);
+            walkingEdges.put(stopId, existing == null ? new ArrayList<>() : new ArrayList<>(existing));
+        }
+        return walkingEdges.get(stopId);
+    }
+
     // ============= Helpers =============
     public Set<String> getAvailableStops() {
         return new TreeSet<>(stops.keySet());
@@ -673,17 +1040,12 @@ public class DataLoader {
             normalized = normalized.substring(0, normalized.indexOf("STATION")).trim();
         }
         if (stops.containsKey(normalized)) return stops.get(normalized);
+        return nameIndex().resolve(normalized);
+    }
 
-        for (String stop : stops.keySet()) {
-            if (normalized.contains(stop) || stop.contains(normalized)) return stops.get(stop);
-        }
-        for (String stop : stops.keySet()) {
-            if (stop.length() >= 3 && normalized.length() >= 3 &&
-                    stop.substring(0, 3).equals(normalized.substring(0, 3))) {
-                return stops.get(stop);
-            }
-        }
-        return null;
+    /** Ranked stop-name matches for autocomplete, best first. */
+    public List<StopNameIndex.Match> searchStops(String query, int limit) {
+        return nameIndex().search(query, limit);
     }
 
     public String getStopNameById(int stopId) {
@@ -692,22 +1054,62 @@ public class DataLoader {
     }
 
     public Integer findNearestStop(double lat, double lng, double maxDistanceKm) {
-        Integer bestId = null;
-        double bestDistance = Double.MAX_VALUE;
-
-        for (StopLocation loc : stopDetails.values()) {
-            double stopLat = loc.getLat();
-            double stopLng = loc.getLon();
-            if (stopLat == 0.0 && stopLng == 0.0) continue;
-
-            double distanceKm = haversineDistance(lat, lng, stopLat, stopLng);
-            if (distanceKm <= maxDistanceKm && distanceKm < bestDistance) {
-                bestDistance = distanceKm;
-                bestId = loc.getID();
-            }
+        List<StopSpatialIndex.Neighbor> nearest = spatialIndex().nearest(lat, lng, 1, maxDistanceKm);
+        return nearest.isEmpty() ? null : nearest.get(0).getStop().getID();
+    }
+
+    /**
+     * Returns up to {@code k} stops within the given distance of a point, nearest first,
+     * mapped to their great-circle distance in kilometers.
+     */
+    public Map<Integer, Double> findNearestStops(double lat, double lng, int k, double maxDistanceKm) {
+        return toDistanceMap(spatialIndex().nearest(lat, lng, k, maxDistanceKm));
+    }
+
+    /**
+     * Returns every stop within the given distance of a point, nearest first,
+     * mapped to its great-circle distance in kilometers.
+     */
+    public Map<Integer, Double> findStopsWithin(double lat, double lng, double maxDistanceKm) {
+        return toDistanceMap(spatialIndex().withinRadius(lat, lng, maxDistanceKm));
+    }
+
+    private static Map<Integer, Double> toDistanceMap(List<StopSpatialIndex.Neighbor> neighbors) {
+        Map<Integer, Double> ordered = new LinkedHashMap<>();
+        for (StopSpatialIndex.Neighbor neighbor : neighbors) {
+            ordered.put(neighbor.getStop().getID(), neighbor.getDistanceKm());
         }
+        return ordered;
+    }
 
-        return bestId;
+    /** Builds the grid index used for coordinate lookups; called once all stops are loaded. */
+    public void buildSpatialIndex() {
+        spatialIndex = new StopSpatialIndex(stopDetails.values(), SPATIAL_INDEX_CELL_KM);
+    }
+
+    /** Builds the stop-name index once all stops are loaded. */
+    public void buildStopNameIndex() {
+        nameIndex = new StopNameIndex(stops);
+    }
+
+    /** Returns the name index, rebuilding it if stops were added since it was built. */
+    private StopNameIndex nameIndex() {
+        StopNameIndex index = nameIndex;
+        if (index == null) {
+            index = new StopNameIndex(stops);
+            nameIndex = index;
+        }
+        return index;
+    }
+
+    /** Returns the coordinate index, rebuilding it if stops were added since it was built. */
+    private StopSpatialIndex spatialIndex() {
+        StopSpatialIndex index = spatialIndex;
+        if (index == null) {
+            index = new StopSpatialIndex(stopDetails.values(), SPATIAL_INDEX_CELL_KM);
+            spatialIndex = index;
+        }
+        return index;
     }
 
 }
@@ -0,0 +1,152 @@
+package backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-stop, time-sorted departure lists for each day type, built once per loaded schedule set.
+ * A departure-board lookup is a binary search to the requested minute plus a short scan.
+ */
+public final class DepartureIndex {
+    private final Map<Integer, Map<String, Board>> boards = new HashMap<>();
+    private final int departureCount;
+
+    /** Builds the index from every valid trip; a trip's final stop is not a departure. */
+    public DepartureIndex(DataLoader loader) {
+        Map<Integer, Map<String, List<Departure>>> pending = new HashMap<>();
+        int count = 0;
+        for (Trip trip : loader.trips.values()) {
+            if (trip == null || loader.isRouteInvalid(trip.getRoute())) continue;
+            List<StopTime> times = trip.getTimes();
+            if (times == null || times.size() < 2) continue;
+
+            int terminusId = times.get(times.size() - 1).stopID;
+            String dayType = trip.getDayType() == null ? "" : trip.getDayType().toUpperCase(Locale.ROOT);
+            for (int i = 0; i < times.size() - 1; i++) {
+                StopTime stopTime = times.get(i);
+                int minutes = parseMinutes(stopTime.time);
+                if (minutes < 0) continue;
+
+                pending.computeIfAbsent(stopTime.stopID, k -> new HashMap<>())
+                        .computeIfAbsent(dayType, k -> new ArrayList<>())
+                        .add(new Departure(minutes, trip, terminusId));
+                count++;
+            }
+        }
+
+        for (Map.Entry<Integer, Map<String, List<Departure>>> stop : pending.entrySet()) {
+            Map<String, Board> byDayType = new HashMap<>();
+            for (Map.Entry<String, List<Departure>> day : stop.getValue().entrySet()) {
+                byDayType.put(day.getKey(), new Board(day.getValue()));
+            }
+            boards.put(stop.getKey(), byDayType);
+        }
+        this.departureCount = count;
+        System.out.println("[DEBUG] Departure index built: " + count + " departures at " + boards.size() + " stops");
+    }
+
+    /** Total number of indexed departures across all stops and day types. */
+    public int size() {
+        return departureCount;
+    }
+
+    /** Returns true when at least one trip departs from the stop on any day type. */
+    public boolean servesStop(int stopId) {
+        return boards.containsKey(stopId);
+    }
+
+    /**
+     * Returns up to {@code limit} departures from the stop at or after {@code fromMinutes}
+     * on the given day type, earliest first.
+     */
+    public List<Departure> next(int stopId, String dayType, int fromMinutes, int limit) {
+        Map<String, Board> byDayType = boards.get(stopId);
+        if (byDayType == null || dayType == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Board board = byDayType.get(dayType.toUpperCase(Locale.ROOT));
+        if (board == null) {
+            return Collections.emptyList();
+        }
+
+        int start = board.firstAtOrAfter(fromMinutes);
+        int end = Math.min(board.departures.length, start + limit);
+        return start >= end ? Collections.emptyList() : Arrays.asList(board.departures).subList(start, end);
+    }
+
+    private static int parseMinutes(String time) {
+        if (time == null || time.isBlank()) return -1;
+        try {
+            return Raptor.timeToMinutes(time.trim());
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /** Departures at one stop for one day type, sorted by time then trip id. */
+    private static final class Board {
+        private final Departure[] departures;
+        private final int[] minutes;
+
+        Board(List<Departure> unsorted) {
+            this.departures = unsorted.toArray(new Departure[0]);
+            Arrays.sort(departures, Comparator
+                    .comparingInt(Departure::getMinutes)
+                    .thenComparing(d -> d.getTrip().getTripID()));
+            this.minutes = new int[departures.length];
+            for (int i = 0; i < departures.length; i++) {
+                minutes[i] = departures[i].getMinutes();
+            }
+        }
+
+        /** Index of the first departure at or after {@code target}. */
+        int firstAtOrAfter(int target) {
+            int lo = 0;
+            int hi = minutes.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (minutes[mid] < target) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /** One trip leaving a stop, with the stop its trip terminates at. */
+    public static final class Departure {
+        private final int minutes;
+        private final Trip trip;
+        private final int terminusStopId;
+
+        Departure(int minutes, Trip trip, int terminusStopId) {
+            this.minutes = minutes;
+            this.trip = trip;
+            this.terminusStopId = terminusStopId;
+        }
+
+        public int getMinutes() {
+            return minutes;
+        }
+
+        public String getTime() {
+            return Raptor.minutesToTime(minutes);
+        }
+
+        public Trip getTrip() {
+            return trip;
+        }
+
+        public int getTerminusStopId() {
+            return terminusStopId;
+        }
+    }
+}
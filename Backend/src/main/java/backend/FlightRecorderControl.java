@@ -0,0 +1,127 @@
+package backend;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Starts, stops and dumps one in-process flight recording at a time, writing .jfr files into a
+ * local directory. The recording is bounded by age and size so a forgotten one cannot fill the disk.
+ */
+public final class FlightRecorderControl {
+    private static final DateTimeFormatter FILE_STAMP =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault());
+    private static final long MAX_RECORDING_BYTES = 256L * 1024 * 1024;
+    private static final Duration MAX_RECORDING_AGE = Duration.ofHours(6);
+
+    private final Path directory;
+    private Recording recording;
+
+    public FlightRecorderControl(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Starts a recording with the named JDK settings ("default" or "profile") plus the
+     * journey planner events. Fails if one is already running.
+     */
+    public synchronized Map<String, Object> start(String settings) throws IOException {
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            throw new IllegalStateException("A recording is already running");
+        }
+        String configName = settings == null || settings.isBlank() ? "profile" : settings.trim();
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(configName);
+        } catch (ParseException | IOException e) {
+            throw new IllegalArgumentException("Unknown recording settings: " + configName);
+        }
+
+        Recording started = new Recording(configuration);
+        started.setName("journey-planner");
+        started.setToDisk(true);
+        started.setMaxSize(MAX_RECORDING_BYTES);
+        started.setMaxAge(MAX_RECORDING_AGE);
+        started.enable(JourneyEvents.LoadPhase.class);
+        started.enable(JourneyEvents.Query.class);
+        started.start();
+        closeQuietly();
+        recording = started;
+        System.out.println("[DEBUG] Flight recording started with settings " + configName);
+        return status();
+    }
+
+    /** Writes the data recorded so far to a new file, leaving the recording running. */
+    public synchronized Map<String, Object> dump() throws IOException {
+        Recording running = requireRecording();
+        Path file = nextFile();
+        running.dump(file);
+        return fileStatus(file);
+    }
+
+    /** Stops the recording and writes it to a new file. */
+    public synchronized Map<String, Object> stop() throws IOException {
+        Recording running = requireRecording();
+        Path file = nextFile();
+        running.stop();
+        running.dump(file);
+        closeQuietly();
+        System.out.println("[DEBUG] Flight recording stopped and written to " + file);
+        return fileStatus(file);
+    }
+
+    /** Describes the current recording, if any. */
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        boolean running = recording != null && recording.getState() == RecordingState.RUNNING;
+        status.put("recording", running);
+        status.put("directory", directory.toString());
+        if (running) {
+            status.put("startedAt", recording.getStartTime().toString());
+            status.put("maxBytes", MAX_RECORDING_BYTES);
+            status.put("maxAgeMinutes", MAX_RECORDING_AGE.toMinutes());
+        }
+        return status;
+    }
+
+    private Recording requireRecording() {
+        if (recording == null || recording.getState() != RecordingState.RUNNING) {
+            throw new IllegalStateException("No recording is running");
+        }
+        return recording;
+    }
+
+    private Path nextFile() throws IOException {
+        Files.createDirectories(directory);
+        String stamp = FILE_STAMP.format(Instant.now());
+        Path file = directory.resolve("journey-" + stamp + ".jfr");
+        for (int i = 1; Files.exists(file); i++) {
+            file = directory.resolve("journey-" + stamp + "-" + i + ".jfr");
+        }
+        return file;
+    }
+
+    private Map<String, Object> fileStatus(Path file) throws IOException {
+        Map<String, Object> status = status();
+        status.put("file", file.toString());
+        status.put("bytes", Files.size(file));
+        return status;
+    }
+
+    private void closeQuietly() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package backend;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates how much heap the structures of a loaded {@link TransitSystem} retain, and samples
+ * the heap while a new system is being built. Sizes come from walking the object graph with a
+ * HotSpot layout model (object header, 8-byte alignment, compressed or full references), so they
+ * are estimates: collection backing arrays are sized from their element counts, not their real
+ * capacity, and JDK-internal objects other than strings, boxes and collections are counted
+ * shallowly. Walking is linear in the size of the dataset, so it runs only when asked for.
+ */
+public final class HeapFootprint {
+    private static final boolean COMPRESSED_OOPS = compressedOops();
+    private static final int REFERENCE_BYTES = COMPRESSED_OOPS ? 4 : 8;
+    private static final int OBJECT_HEADER_BYTES = COMPRESSED_OOPS ? 12 : 16;
+    private static final int ARRAY_HEADER_BYTES = COMPRESSED_OOPS ? 16 : 24;
+    private static final int HASH_NODE_BYTES = align(OBJECT_HEADER_BYTES + 4 + 3L * REFERENCE_BYTES);
+    private static final int LINKED_HASH_NODE_BYTES = align(HASH_NODE_BYTES + 2L * REFERENCE_BYTES);
+    private static final int HASH_MAP_BYTES = align(OBJECT_HEADER_BYTES + 4L * 4 + 4L * REFERENCE_BYTES);
+    private static final int LIST_BYTES = align(OBJECT_HEADER_BYTES + 2L * 4 + REFERENCE_BYTES);
+    private static final int STRING_BYTES = align(OBJECT_HEADER_BYTES + 4 + 2 + REFERENCE_BYTES);
+
+    private static final Map<Class<?>, List<Field>> FIELDS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Long> SHALLOW_SIZES = new ConcurrentHashMap<>();
+
+    private static volatile Map<String, Object> lastReload;
+
+    private HeapFootprint() {
+    }
+
+    /**
+     * Estimated size of each {@link DataLoader} structure and of the whole system. A structure's
+     * bytes include everything reachable from it, so objects shared between structures (stop
+     * names, {@link StopLocation}s) appear under each of them; the system total counts them once.
+     */
+    public static Map<String, Object> describe(TransitSystem system) {
+        long started = System.nanoTime();
+        DataLoader loader = system.getLoader();
+
+        Map<String, Object> structures = new LinkedHashMap<>();
+        structures.put("trips", structure(loader.trips, loader.trips.size()));
+        structures.put("stopDetails", structure(loader.stopDetails, loader.stopDetails.size()));
+        structures.put("stopNameToDetails", structure(loader.stopNameToDetails, loader.stopNameToDetails.size()));
+        structures.put("walkingEdges", structure(loader.walkingEdges, loader.walkingEdges.size()));
+        structures.put("stopToRoutes", structure(loader.stopToRoutes, loader.stopToRoutes.size()));
+        structures.put("routes", structure(loader.routes, loader.routes.size()));
+        structures.put("stops", structure(loader.stops, loader.stops.size()));
+        structures.put("departureIndex", structure(system.getDepartureIndex(), system.getDepartureIndex().size()));
+
+        Walk total = new Walk();
+        total.add(system);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("generation", system.getGeneration());
+        result.put("structures", structures);
+        result.put("systemBytes", total.bytes);
+        result.put("systemObjects", total.objects);
+        result.put("heap", heapUsage());
+        result.put("lastReload", lastReload);
+        result.put("model", Map.of(
+                "compressedOops", COMPRESSED_OOPS,
+                "referenceBytes", REFERENCE_BYTES,
+                "objectHeaderBytes", OBJECT_HEADER_BYTES));
+        result.put("computeMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return result;
+    }
+
+    /** Starts sampling the heap for a reload; pass the result to {@link #endReload}. */
+    static ReloadSample beginReload() {
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.resetPeakUsage();
+        }
+        return new ReloadSample();
+    }
+
+    /**
+     * Records the heap peak seen since {@link #beginReload}. The peak is the sum of each heap
+     * pool's own peak, which can slightly overstate a peak the pools did not reach together.
+     */
+    static void endReload(ReloadSample sample, boolean loaded) {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            MemoryUsage usage = pool.getPeakUsage();
+            if (usage != null) peak += usage.getUsed();
+        }
+        Map<String, Object> reload = new LinkedHashMap<>();
+        reload.put("startedAt", sample.startedAt.toString());
+        reload.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sample.startedNanos));
+        reload.put("loaded", loaded);
+        reload.put("heapUsedBeforeBytes", sample.heapUsedBefore);
+        reload.put("heapUsedAfterBytes", usedHeap());
+        reload.put("peakHeapUsedBytes", peak);
+        lastReload = reload;
+    }
+
+    private static Map<String, Object> structure(Object root, int entries) {
+        Walk walk = new Walk();
+        walk.add(root);
+        Map<String, Object> structure = new LinkedHashMap<>();
+        structure.put("entries", entries);
+        structure.put("bytes", walk.bytes);
+        structure.put("objects", walk.objects);
+        return structure;
+    }
+
+    private static Map<String, Object> heapUsage() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Map<String, Object> usage = new LinkedHashMap<>();
+        usage.put("usedBytes", heap.getUsed());
+        usage.put("committedBytes", heap.getCommitted());
+        usage.put("maxBytes", heap.getMax());
+        return usage;
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static boolean compressedOops() {
+        try {
+            HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return hotspot == null || Boolean.parseBoolean(hotspot.getVMOption("UseCompressedOops").getValue());
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    private static int align(long bytes) {
+        return (int) ((bytes + 7) & ~7L);
+    }
+
+    /** Heap state when a reload started. */
+    static final class ReloadSample {
+        private final Instant startedAt = Instant.now();
+        private final long startedNanos = System.nanoTime();
+        private final long heapUsedBefore = usedHeap();
+    }
+
+    /** One traversal; each object is counted once however many paths reach it. */
+    private static final class Walk {
+        private final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+        private long bytes;
+        private long objects;
+
+        void add(Object root) {
+            push(root);
+            while (!pending.isEmpty()) {
+                visit(pending.pop());
+            }
+        }
+
+        private void push(Object value) {
+            if (value == null || value instanceof Class || value instanceof Enum) return;
+            if (seen.add(value)) {
+                pending.push(value);
+            }
+        }
+
+        private void count(long size) {
+            bytes += size;
+            objects++;
+        }
+
+        private void visit(Object value) {
+            Class<?> type = value.getClass();
+            if (value instanceof String text) {
+                count(STRING_BYTES);
+                count(align(ARRAY_HEADER_BYTES + (long) text.length() * (latin1(text) ? 1 : 2)));
+            } else if (type.isArray()) {
+                visitArray(value, type.getComponentType());
+            } else if (value instanceof Map<?, ?> map) {
+                boolean linked = value instanceof LinkedHashMap;
+                count(HASH_MAP_BYTES);
+                count(align(ARRAY_HEADER_BYTES + (long) tableSize(map.size()) * REFERENCE_BYTES));
+                bytes += (long) map.size() * (linked ? LINKED_HASH_NODE_BYTES : HASH_NODE_BYTES);
+                objects += map.size();
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    push(entry.getKey());
+                    push(entry.getValue());
+                }
+            } else if (value instanceof Collection<?> collection) {
+                count(LIST_BYTES);
+                if (value instanceof Set) {
+                    // A HashSet is a HashMap whose values all point at one shared object.
+                    count(HASH_MAP_BYTES);
+                    count(align(ARRAY_HEADER_BYTES + (long) tableSize(collection.size()) * REFERENCE_BYTES));
+                    bytes += (long) collection.size() * HASH_NODE_BYTES;
+                    objects += collection.size();
+                } else {
+                    count(align(ARRAY_HEADER_BYTES + (long) collection.size() * REFERENCE_BYTES));
+                }
+                for (Object element : collection) {
+                    push(element);
+                }
+            } else {
+                count(shallowSize(type));
+                for (Field field : fields(type)) {
+                    try {
+                        push(field.get(value));
+                    } catch (IllegalAccessException e) {
+                        // Only counted shallowly; see fields().
+                    }
+                }
+            }
+        }
+
+        private void visitArray(Object array, Class<?> component) {
+            int length = Array.getLength(array);
+            count(align(ARRAY_HEADER_BYTES + (long) length * slotBytes(component)));
+            if (!component.isPrimitive()) {
+                for (Object element : (Object[]) array) {
+                    push(element);
+                }
+            }
+        }
+
+        private static boolean latin1(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) > 0xFF) return false;
+            }
+            return true;
+        }
+
+        private static int tableSize(int entries) {
+            int needed = (int) Math.ceil(entries / 0.75);
+            return needed <= 16 ? 16 : Integer.highestOneBit(needed - 1) << 1;
+        }
+    }
+
+    private static long shallowSize(Class<?> type) {
+        return SHALLOW_SIZES.computeIfAbsent(type, t -> {
+            long size = OBJECT_HEADER_BYTES;
+            for (Class<?> c = t; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        size += slotBytes(field.getType());
+                    }
+                }
+            }
+            return (long) align(size);
+        });
+    }
+
+    /**
+     * Reference fields the walk follows. Only this package's classes are opened up; the fields
+     * of other classes (locks, adders, futures) are counted in their shallow size only.
+     */
+    private static List<Field> fields(Class<?> type) {
+        return FIELDS.computeIfAbsent(type, t -> {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = t; c != null; c = c.getSuperclass()) {
+                if (c.getPackage() != HeapFootprint.class.getPackage()) continue;
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) continue;
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            return fields;
+        });
+    }
+
+    private static int slotBytes(Class<?> type) {
+        if (!type.isPrimitive()) return REFERENCE_BYTES;
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        return 1;
+    }
+}
@@ -4,14 +4,24 @@ package backend;
 import static spark.Spark.*;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.http.Part;
 import spark.Request;
+import spark.Response;
+import spark.Route;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -19,6 +29,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -27,10 +39,18 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class JourneyAPI {
     private static final Gson gson = new Gson();
@@ -41,6 +61,62 @@ public class JourneyAPI {
     private static final Path TRASH_DIR = DATA_ROOT.resolve(".trash").normalize();
     private static final Path TRASH_METADATA = TRASH_DIR.resolve("metadata.json").normalize();
     private static final int TRASH_LIMIT = 3;
+    private static final int MAX_MATRIX_CELLS = 10_000;
+    private static final int MAX_BATCH_QUERIES = 1_000;
+    /** Serialized /journey bodies keyed by normalized query; sized by the JOURNEY_CACHE_BYTES property. */
+    private static final JourneyResponseCache JOURNEY_CACHE =
+            new JourneyResponseCache(Long.getLong("JOURNEY_CACHE_BYTES", 32L * 1024 * 1024));
+    private static final int BATCH_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    /** Bounded pool shared by all batch requests so one large batch cannot take every core. */
+    private static final ExecutorService BATCH_POOL = Executors.newFixedThreadPool(BATCH_WORKERS, runnable -> {
+        Thread thread = new Thread(runnable, "journey-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+    private static final int MAX_SEARCH_LIMIT = 50;
+    private static final int DEFAULT_BOARD_LIMIT = 10;
+    private static final int MAX_BOARD_LIMIT = 100;
+    private static final DateTimeFormatter BOARD_TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
+    /**
+     * Caps concurrent query work (QUERY_CONCURRENCY, QUERY_QUEUE_DEPTH, QUERY_QUEUE_WAIT_MS);
+     * /health and admin routes bypass it so they stay responsive under load.
+     */
+    private static final AdmissionController ADMISSION = new AdmissionController(
+            Integer.getInteger("QUERY_CONCURRENCY", Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("QUERY_QUEUE_DEPTH", 64),
+            Long.getLong("QUERY_QUEUE_WAIT_MS", 2_000L));
+    private static final int RETRY_AFTER_SECONDS = Integer.getInteger("QUERY_RETRY_AFTER_SECONDS", 1);
+    /** Time budget for one search (QUERY_TIMEOUT_MS); 0 disables the deadline. */
+    private static final long QUERY_TIMEOUT_MS = Long.getLong("QUERY_TIMEOUT_MS", 5_000L);
+    /** Collect search statistics for every /journey query so metrics include engine work (SEARCH_STATS). */
+    private static final boolean COLLECT_SEARCH_STATS = Boolean.getBoolean("SEARCH_STATS");
+    /**
+     * /journey queries slower than SLOW_QUERY_MS (default 1000, 0 disables) are appended to
+     * SLOW_QUERY_LOG, rolled at 10 MB with three older files kept; see {@link SlowQueryReplay}.
+     */
+    private static final SlowQueryLog SLOW_QUERIES = new SlowQueryLog(
+            Paths.get(System.getProperty("SLOW_QUERY_LOG", "logs/slow-queries.jsonl")).toAbsolutePath().normalize(),
+            Long.getLong("SLOW_QUERY_MS", 1_000L),
+            10L * 1024 * 1024,
+            3);
+    private static final String[] JOURNEY_PARAMS = {
+            "from", "to", "fromLat", "fromLng", "toLat", "toLng", "time", "date", "modes", "maxWalkMeters", "format"
+    };
+    /**
+     * Queries replayed on every newly built system before it is published (WARMUP_QUERIES, 0
+     * disables), drawn from WARMUP_CORPUS (a slow query log) or generated from the loaded stops.
+     * Warm-up stops after WARMUP_MAX_MS.
+     */
+    private static final int WARMUP_QUERIES = Integer.getInteger("WARMUP_QUERIES", 100);
+    private static final long WARMUP_MAX_MS = Long.getLong("WARMUP_MAX_MS", 30_000L);
+    private static final String WARMUP_CORPUS = System.getProperty("WARMUP_CORPUS");
+    private static volatile Map<String, Object> lastWarmup;
+    /** Progress of the initial load reported by /health/ready: loading, warming, ready or failed. */
+    private static volatile String startupState = "loading";
+    /** Flight recordings started from the admin API are written here (JFR_DIR, default "recordings"). */
+    private static final FlightRecorderControl FLIGHT_RECORDER =
+            new FlightRecorderControl(Paths.get(System.getProperty("JFR_DIR", "recordings")).toAbsolutePath().normalize());
 
     /** Entry point that boots the Spark server, loads data, and wires all endpoints. */
 
@@ -52,16 +128,28 @@ public class JourneyAPI {
 
         enableCORS();
 
+        // The first load and warm-up run after the server is listening, so /health/live answers
+        // straight away while /health/ready waits for a warmed system.
         final AtomicReference<TransitSystem> systemRef = new AtomicReference<>();
-        try {
-            systemRef.set(buildTransitSystem());
-            System.out.println("TransitSystem loaded.");
-        } catch (Throwable e) {
-            System.err.println("Failed to load TransitSystem: " + e.getMessage());
-            e.printStackTrace();
-        }
-
-        System.out.println("TransitSystem present: " + (systemRef.get() != null));
+        // Schedule changes and reloads queue here; the worker starts once the first load is done.
+        final ReloadManager reloads = new ReloadManager(systemRef, JourneyAPI::warmUp);
+        Thread initialLoad = new Thread(() -> {
+            try {
+                TransitSystem loaded = loadTransitSystem();
+                startupState = "warming";
+                warmUp(loaded);
+                systemRef.set(loaded);
+                startupState = "ready";
+                System.out.println("TransitSystem loaded.");
+            } catch (Throwable e) {
+                startupState = "failed";
+                System.err.println("Failed to load TransitSystem: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                reloads.start();
+            }
+            System.out.println("TransitSystem present: " + (systemRef.get() != null));
+        }, "transit-initial-load");
 
         get("/health", (req, res) -> {
             res.type("application/json");
@@ -69,7 +157,30 @@ public class JourneyAPI {
             return gson.toJson(Map.of("ok", ok));
         });
 
-        get("/journey", (req, res) -> {
+        get("/health/live", (req, res) -> {
+            res.type("application/json");
+            return gson.toJson(Map.of("live", true));
+        });
+
+        get("/health/ready", (req, res) -> {
+            res.type("application/json");
+            TransitSystem system = systemRef.get();
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("ready", system != null);
+            body.put("state", system != null ? "ready" : startupState);
+            if (system != null) {
+                body.put("generation", system.getGeneration());
+            } else {
+                res.status(503);
+            }
+            if (lastWarmup != null) {
+                body.put("warmup", lastWarmup);
+            }
+            return gson.toJson(body);
+        });
+
+        get("/journey", admitted(AdmissionController.Priority.INTERACTIVE, (req, res) -> {
+            long started = System.nanoTime();
             res.type("application/json");
 
             TransitSystem system = systemRef.get();
@@ -90,6 +201,7 @@ public class JourneyAPI {
             String maxWalkParam = trim(req.queryParams("maxWalkMeters"));
 
             if (time == null || time.isEmpty()) {
+                Metrics.countQuery("/journey", "bad_request");
                 res.status(400);
                 return gson.toJson(Map.of("error", "Missing required query params: time"));
             }
@@ -102,6 +214,7 @@ public class JourneyAPI {
             );
 
             if (!preferences.isValid()) {
+                Metrics.countQuery("/journey", "bad_request");
                 res.status(400);
                 return gson.toJson(Map.of("error", "Invalid transport preference configuration"));
             }
@@ -111,51 +224,373 @@ public class JourneyAPI {
                     && toLatParam != null && !toLatParam.isEmpty()
                     && toLngParam != null && !toLngParam.isEmpty();
 
+            boolean debug = "true".equalsIgnoreCase(trim(req.queryParams("debug")));
+            QueryContext context = QueryContext.withTimeout(QUERY_TIMEOUT_MS);
+            if (debug || COLLECT_SEARCH_STATS) {
+                context = context.withStats();
+            } else if (SLOW_QUERIES.isEnabled()) {
+                // The slow query log needs only the summary, not the engines' work counters.
+                context = context.withSummary();
+            }
+
             try {
                 String dayType = system.resolveDayType(date);
                 boolean useCSA = preferences.requiresCSA();
-                List<PathStep> path;
+                JourneyEndpoint origin;
+                JourneyEndpoint destination;
                 if (hasCoordinates) {
-                    double fromLat = Double.parseDouble(fromLatParam);
-                    double fromLng = Double.parseDouble(fromLngParam);
-                    double toLat = Double.parseDouble(toLatParam);
-                    double toLng = Double.parseDouble(toLngParam);
-
-                    path = system.query(fromLat, fromLng, toLat, toLng, time, date, preferences);
+                    origin = JourneyEndpoint.ofCoordinates(Double.parseDouble(fromLatParam), Double.parseDouble(fromLngParam));
+                    destination = JourneyEndpoint.ofCoordinates(Double.parseDouble(toLatParam), Double.parseDouble(toLngParam));
                 } else {
                     if (from == null || to == null) {
+                        Metrics.countQuery("/journey", "bad_request");
                         res.status(400);
                         return gson.toJson(Map.of("error", "Missing required query params: coordinates or place names"));
                     }
-                    path = system.query(from, to, time, date, preferences);
+                    origin = from.isEmpty() ? null : JourneyEndpoint.ofStopName(from);
+                    destination = to.isEmpty() ? null : JourneyEndpoint.ofStopName(to);
                 }
-                if (path == null || path.isEmpty()) {
-                    res.status(200);
-                    return gson.toJson(Map.of(
-                        "routes", List.of(),
-                        "message", "No route found"
-                    ));
+
+                boolean compact = isCompactFormat(trim(req.queryParams("format")));
+                String encoding = negotiateEncoding(req.headers("Accept-Encoding"));
+
+                // Debug answers describe their own search, so they bypass the cache.
+                String cacheKey = debug ? null : system.journeyCacheKey(origin, destination, time, date, preferences);
+                if (cacheKey != null) {
+                    if (compact) cacheKey += "|compact";
+                    String cached = JOURNEY_CACHE.get(cacheKey, system.getGeneration());
+                    if (cached != null) {
+                        Metrics.countQuery("/journey", "cached");
+                        res.header("X-Cache", "HIT");
+                        try (Writer body = openBody(res, encoding)) {
+                            body.write(cached);
+                        }
+                        return "";
+                    }
                 }
 
-                Map<String, Object> summary = computeSummary(path, dayType);
-                summary.put("algorithm", useCSA ? "CSA" : "RAPTOR");
-                List<Map<String, Object>> legs = buildLegs(path, system.getLoader());
-                return gson.toJson(Map.of(
-                    "routes", List.of(Map.of(
-                        "summary", summary,
-                        "steps", path,
-                        "legs", legs
-                    ))
-                ));
+                List<PathStep> path;
+                if (hasCoordinates) {
+                    path = system.query(origin.getLat(), origin.getLng(), destination.getLat(), destination.getLng(),
+                            time, date, preferences, context);
+                } else {
+                    path = system.query(from, to, time, date, preferences, context);
+                }
+
+                Metrics.countQuery("/journey", path == null || path.isEmpty() ? "none" : "found");
+
+                // A search cut short by its deadline answers with its best journey, which is never cached.
+                if (context.isTruncated()) {
+                    res.header("X-Search-Truncated", "true");
+                    cacheKey = null;
+                }
+
+                // Stream the body straight to the client, keeping a copy only when it will be cached.
+                if (cacheKey != null) {
+                    res.header("X-Cache", "MISS");
+                }
+                Writer body = openBody(res, encoding);
+                StringWriter cacheCopy = null;
+                if (cacheKey != null) {
+                    cacheCopy = new StringWriter();
+                    body = new CopyingWriter(body, cacheCopy);
+                }
+                SearchStats stats = debug ? context.stats() : null;
+                if (compact) {
+                    JourneyJsonWriter.writeCompactJourney(body, path, dayType, useCSA, system.getLoader(), stats);
+                } else {
+                    JourneyJsonWriter.writeJourney(body, path, dayType, useCSA, system.getLoader(), stats);
+                }
+                body.close();
+                if (cacheCopy != null) {
+                    JOURNEY_CACHE.put(cacheKey, system.getGeneration(), cacheCopy.toString());
+                }
+                logIfSlow(req, system, context, started, path == null || path.isEmpty() ? "none" : "found",
+                        path == null ? 0 : path.size());
+                return "";
             } catch (IllegalArgumentException iae) {
+                Metrics.countQuery("/journey", "bad_request");
                 res.status(400);
                 return gson.toJson(Map.of("error", iae.getMessage()));
+            } catch (QueryTimeoutException timeout) {
+                Metrics.countQuery("/journey", "timeout");
+                logIfSlow(req, system, context, started, "timeout", 0);
+                res.status(504);
+                return gson.toJson(Map.of("error", timeout.getMessage()));
             } catch (Exception e) {
+                Metrics.countQuery("/journey", "error");
                 e.printStackTrace();
                 res.status(500);
                 return gson.toJson(Map.of("error", "Internal error: " + e.getMessage()));
             }
-        });
+        }));
+
+        get("/journey/stream", admitted(AdmissionController.Priority.INTERACTIVE, (req, res) -> {
+            TransitSystem system = systemRef.get();
+            if (system == null) {
+                res.type("application/json");
+                res.status(500);
+                return gson.toJson(Map.of("error", "Backend not initialized"));
+            }
+
+            String time = trim(req.queryParams("time"));
+            String date = trim(req.queryParams("date"));
+            JourneyEndpoint origin;
+            JourneyEndpoint destination;
+            QueryPreferences preferences;
+            try {
+                if (time == null || time.isEmpty()) {
+                    throw new IllegalArgumentException("Missing required query params: time");
+                }
+                preferences = QueryPreferences.fromRawInputs(
+                        trim(req.queryParams("modes")),
+                        trim(req.queryParams("maxWalkMeters")),
+                        TransitSystem.getDefaultMaxConsecutiveWalkKm(),
+                        TransitSystem.getDefaultMaxCumulativeWalkKm()
+                );
+                if (!preferences.isValid()) {
+                    throw new IllegalArgumentException("Invalid transport preference configuration");
+                }
+                origin = requestEndpoint(req, "from", "fromLat", "fromLng");
+                destination = requestEndpoint(req, "to", "toLat", "toLng");
+                if (origin == null || destination == null) {
+                    throw new IllegalArgumentException("Missing required query params: coordinates or place names");
+                }
+            } catch (IllegalArgumentException iae) {
+                res.type("application/json");
+                Metrics.countQuery("/journey/stream", "bad_request");
+                res.status(400);
+                return gson.toJson(Map.of("error", iae.getMessage()));
+            }
+
+            res.type("text/event-stream");
+            res.header("Cache-Control", "no-cache");
+            res.header("X-Accel-Buffering", "no");
+            OutputStream out = res.raw().getOutputStream();
+
+            String dayType = system.resolveDayType(date);
+            boolean useCSA = preferences.requiresCSA();
+            DataLoader loader = system.getLoader();
+            try {
+                List<PathStep> path = system.streamQuery(origin, destination, time, date, preferences,
+                        (round, steps) -> sendEvent(out, "journey", journeyJson(round, steps, dayType, useCSA, loader)),
+                        QueryContext.withTimeout(QUERY_TIMEOUT_MS));
+                sendEvent(out, "final", journeyJson(null, path, dayType, useCSA, loader));
+                Metrics.countQuery("/journey/stream", path == null || path.isEmpty() ? "none" : "found");
+            } catch (UncheckedIOException disconnected) {
+                Metrics.countQuery("/journey/stream", "disconnected");
+            } catch (IllegalArgumentException | QueryTimeoutException e) {
+                Metrics.countQuery("/journey/stream", e instanceof QueryTimeoutException ? "timeout" : "bad_request");
+                sendErrorEvent(out, e.getMessage());
+            } catch (Exception e) {
+                Metrics.countQuery("/journey/stream", "error");
+                e.printStackTrace();
+                sendErrorEvent(out, "Internal error: " + e.getMessage());
+            }
+            return "";
+        }));
+
+        post("/journey/batch", admitted(AdmissionController.Priority.BULK, (req, res) -> {
+            res.type("application/json");
+
+            TransitSystem system = systemRef.get();
+            if (system == null) {
+                res.status(500);
+                return gson.toJson(Map.of("error", "Backend not initialized"));
+            }
+            // One budget for the whole batch, however long groups wait for a batch worker.
+            QueryContext deadline = QueryContext.withTimeout(QUERY_TIMEOUT_MS);
+
+            List<BatchQuery> queries;
+            try {
+                queries = parseBatchQueries(parseJsonObject(req.body()).get("queries"), system);
+            } catch (IllegalArgumentException | JsonParseException iae) {
+                res.status(400);
+                return gson.toJson(Map.of("error", iae.getMessage()));
+            }
+
+            // Queries sharing origin, departure minute, day type and preferences reuse one search.
+            Map<String, List<BatchQuery>> groups = new LinkedHashMap<>();
+            for (BatchQuery query : queries) {
+                if (query.groupKey != null) {
+                    groups.computeIfAbsent(query.groupKey, k -> new ArrayList<>()).add(query);
+                }
+            }
+            List<QueryContext> contexts = new ArrayList<>();
+            List<Future<?>> tasks = new ArrayList<>();
+            for (List<BatchQuery> group : groups.values()) {
+                QueryContext context = deadline.withSameDeadline();
+                contexts.add(context);
+                tasks.add(BATCH_POOL.submit(() -> runBatchGroup(system, group, context)));
+            }
+
+            JsonWriter writer = JourneyJsonWriter.newWriter(new OutputStreamWriter(res.raw().getOutputStream(), StandardCharsets.UTF_8));
+            try {
+                writer.beginObject();
+                writer.name("searches").value(groups.size());
+                writer.name("results").beginArray();
+                for (BatchQuery query : queries) {
+                    writer.jsonValue(awaitResult(query, deadline));
+                    writer.flush();
+                }
+                writer.endArray();
+                writer.endObject();
+                writer.flush();
+            } catch (IOException disconnected) {
+                Metrics.countQuery("/journey/batch", "disconnected");
+            } finally {
+                // Groups still queued or searching after a disconnect or the deadline stop here.
+                tasks.forEach(task -> task.cancel(false));
+                contexts.forEach(QueryContext::markTruncated);
+            }
+            return "";
+        }));
+
+        post("/matrix", admitted(AdmissionController.Priority.BULK, (req, res) -> {
+            res.type("application/json");
+
+            TransitSystem system = systemRef.get();
+            if (system == null) {
+                res.status(500);
+                return gson.toJson(Map.of("error", "Backend not initialized"));
+            }
+
+            try {
+                Map<String, Object> payload = parseJsonObject(req.body());
+                List<JourneyEndpoint> origins = parseEndpoints(payload.get("origins"), "origins");
+                List<JourneyEndpoint> destinations = parseEndpoints(payload.get("destinations"), "destinations");
+                if ((long) origins.size() * destinations.size() > MAX_MATRIX_CELLS) {
+                    throw new IllegalArgumentException("Matrix too large: at most " + MAX_MATRIX_CELLS + " cells per request");
+                }
+
+                String time = payloadString(payload, "time");
+                if (time == null || time.isEmpty()) {
+                    throw new IllegalArgumentException("Missing required field: time");
+                }
+                String date = payloadString(payload, "date");
+
+                QueryPreferences preferences = QueryPreferences.fromRawInputs(
+                        payloadString(payload, "modes"),
+                        payloadString(payload, "maxWalkMeters"),
+                        TransitSystem.getDefaultMaxConsecutiveWalkKm(),
+                        TransitSystem.getDefaultMaxCumulativeWalkKm()
+                );
+
+                TravelTimeMatrix matrix = system.computeMatrix(origins, destinations, time, date, preferences,
+                        QueryContext.withTimeout(QUERY_TIMEOUT_MS));
+                if (matrix.isTruncated()) {
+                    res.header("X-Search-Truncated", "true");
+                }
+                return gson.toJson(matrixToMap(matrix, origins, destinations, time, system.resolveDayType(date), system.getLoader()));
+            } catch (IllegalArgumentException | JsonParseException iae) {
+                res.status(400);
+                return gson.toJson(Map.of("error", iae.getMessage()));
+            } catch (Exception e) {
+                e.printStackTrace();
+                res.status(500);
+                return gson.toJson(Map.of("error", "Internal error: " + e.getMessage()));
+            }
+        }));
+
+        get("/stops/search", admitted(AdmissionController.Priority.INTERACTIVE, (req, res) -> {
+            res.type("application/json");
+
+            TransitSystem system = systemRef.get();
+            if (system == null) {
+                res.status(500);
+                return gson.toJson(Map.of("error", "Backend not initialized"));
+            }
+
+            String query = trim(req.queryParams("q"));
+            if (query == null || query.isEmpty()) {
+                res.status(400);
+                return gson.toJson(Map.of("error", "Missing required query params: q"));
+            }
+
+            try {
+                int limit = parseLimit(trim(req.queryParams("limit")), DEFAULT_SEARCH_LIMIT, MAX_SEARCH_LIMIT);
+                DataLoader loader = system.getLoader();
+                List<Map<String, Object>> results = new ArrayList<>();
+                for (StopNameIndex.Match match : loader.searchStops(query, limit)) {
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("stopId", match.getStopId());
+                    entry.put("name", match.getName());
+                    StopLocation loc = loader.stopDetails.get(match.getStopId());
+                    if (loc != null && !(loc.getLat() == 0.0 && loc.getLon() == 0.0)) {
+                        entry.put("coords", Map.of("lat", loc.getLat(), "lon", loc.getLon()));
+                    }
+                    entry.put("score", match.getScore());
+                    results.add(entry);
+                }
+                Map<String, Object> payload = new LinkedHashMap<>();
+                payload.put("query", query);
+                payload.put("results", results);
+                return gson.toJson(payload);
+            } catch (IllegalArgumentException iae) {
+                res.status(400);
+                return gson.toJson(Map.of("error", iae.getMessage()));
+            }
+        }));
+
+        get("/stops/:id/departures", admitted(AdmissionController.Priority.INTERACTIVE, (req, res) -> {
+            res.type("application/json");
+
+            TransitSystem system = systemRef.get();
+            if (system == null) {
+                res.status(500);
+                return gson.toJson(Map.of("error", "Backend not initialized"));
+            }
+
+            try {
+                int stopId = parseStopId(req.params(":id"));
+                DataLoader loader = system.getLoader();
+                StopLocation stop = loader.stopDetails.get(stopId);
+                if (stop == null) {
+                    res.status(404);
+                    return gson.toJson(Map.of("error", "Unknown stop id: " + stopId));
+                }
+
+                String time = trim(req.queryParams("time"));
+                if (time == null || time.isEmpty()) {
+                    time = LocalTime.now().format(BOARD_TIME_FORMATTER);
+                }
+                int fromMinutes;
+                try {
+                    fromMinutes = Raptor.timeToMinutes(time);
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("time must be HH:MM");
+                }
+                String date = trim(req.queryParams("date"));
+                String dayType = system.resolveDayType(date == null || date.isEmpty() ? LocalDate.now().toString() : date);
+                int limit = parseLimit(trim(req.queryParams("limit")), DEFAULT_BOARD_LIMIT, MAX_BOARD_LIMIT);
+
+                List<Map<String, Object>> departures = new ArrayList<>();
+                for (DepartureIndex.Departure departure : system.getDepartureIndex().next(stopId, dayType, fromMinutes, limit)) {
+                    Trip trip = departure.getTrip();
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("time", departure.getTime());
+                    entry.put("tripId", trip.getTripID());
+                    entry.put("route", trip.getRoute());
+                    entry.put("mode", trip.getMode());
+                    entry.put("operator", JourneyJsonWriter.deriveOperator(trip.getTripID(), loader));
+                    entry.put("line", JourneyJsonWriter.deriveLine(trip.getTripID()));
+                    entry.put("destination", loader.getStopNameById(departure.getTerminusStopId()));
+                    departures.add(entry);
+                }
+
+                Map<String, Object> payload = new LinkedHashMap<>();
+                payload.put("stopId", stopId);
+                payload.put("stop", stop.getName());
+                payload.put("time", time);
+                payload.put("dayType", dayType);
+                payload.put("routes", loader.stopToRoutes.getOrDefault(stopId, List.of()));
+                payload.put("departures", departures);
+                return gson.toJson(payload);
+            } catch (IllegalArgumentException iae) {
+                res.status(400);
+                return gson.toJson(Map.of("error", iae.getMessage()));
+            }
+        }));
 
         get("/admin/schedules", (req, res) -> {
             res.type("application/json");
@@ -179,6 +614,7 @@ public class JourneyAPI {
 
             Part filePart = null;
             Path tempFile = null;
+            boolean queued = false;
             try {
                 String typeParam = optionalParam(req, "type").orElse("");
                 ScheduleCategory category = ScheduleCategory.fromId(typeParam)
@@ -210,22 +646,21 @@ public class JourneyAPI {
                 if (Files.exists(target)) {
                     throw new IllegalArgumentException("A schedule with that filename already exists");
                 }
-                Files.createDirectories(target.getParent());
-                Files.copy(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
-
-                try {
-                    TransitSystem refreshed = buildTransitSystem();
-                    systemRef.set(refreshed);
-                } catch (IOException reloadEx) {
-                    Files.deleteIfExists(target);
-                    throw reloadEx;
-                }
 
-                return gson.toJson(Map.of(
-                        "status", "ok",
-                        "message", "Schedule added",
-                        "path", relativePath(target)
-                ));
+                Path upload = tempFile;
+                ReloadManager.Change change = ReloadManager.Change.scheduleFile(target, category.operator)
+                        .apply(() -> {
+                            if (Files.exists(target)) {
+                                throw new IllegalArgumentException("A schedule with that filename already exists");
+                            }
+                            Files.createDirectories(target.getParent());
+                            Files.copy(upload, target);
+                        })
+                        .revert(() -> Files.deleteIfExists(target))
+                        .cleanup(() -> Files.deleteIfExists(upload));
+                ReloadManager.Job job = reloads.submit("Add " + relativePath(target), change);
+                queued = true;
+                return accepted(res, job, "Schedule add queued", Map.of("path", relativePath(target)));
             } catch (IllegalArgumentException iae) {
                 res.status(400);
                 return gson.toJson(Map.of("error", iae.getMessage()));
@@ -234,7 +669,7 @@ public class JourneyAPI {
                 return gson.toJson(Map.of("error", ex.getMessage()));
             } finally {
                 cleanupPart(filePart);
-                deleteIfExists(tempFile);
+                if (!queued) deleteIfExists(tempFile);
             }
         });
 
@@ -246,6 +681,7 @@ public class JourneyAPI {
             Part filePart = null;
             Path tempUpload = null;
             Path backup = null;
+            boolean queued = false;
             try {
                 String pathParam = optionalParam(req, "path")
                         .map(String::trim)
@@ -273,18 +709,24 @@ public class JourneyAPI {
                 category.validate(tempUpload);
 
                 backup = Files.createTempFile("schedule-backup-", ".csv");
-                Files.copy(target, backup, StandardCopyOption.REPLACE_EXISTING);
-                Files.copy(tempUpload, target, StandardCopyOption.REPLACE_EXISTING);
-
-                try {
-                    TransitSystem refreshed = buildTransitSystem();
-                    systemRef.set(refreshed);
-                } catch (IOException reloadEx) {
-                    Files.copy(backup, target, StandardCopyOption.REPLACE_EXISTING);
-                    throw reloadEx;
-                }
-
-                return gson.toJson(Map.of("status", "ok", "message", "Schedule updated"));
+                Path upload = tempUpload;
+                Path saved = backup;
+                ReloadManager.Change change = ReloadManager.Change.scheduleFile(target, category.operator)
+                        .apply(() -> {
+                            if (!Files.exists(target)) {
+                                throw new IllegalArgumentException("Schedule not found: " + pathParam);
+                            }
+                            Files.copy(target, saved, StandardCopyOption.REPLACE_EXISTING);
+                            Files.copy(upload, target, StandardCopyOption.REPLACE_EXISTING);
+                        })
+                        .revert(() -> Files.copy(saved, target, StandardCopyOption.REPLACE_EXISTING))
+                        .cleanup(() -> {
+                            Files.deleteIfExists(upload);
+                            Files.deleteIfExists(saved);
+                        });
+                ReloadManager.Job job = reloads.submit("Update " + relativePath(target), change);
+                queued = true;
+                return accepted(res, job, "Schedule update queued", Map.of());
             } catch (IllegalArgumentException iae) {
                 res.status(400);
                 return gson.toJson(Map.of("error", iae.getMessage()));
@@ -293,8 +735,10 @@ public class JourneyAPI {
                 return gson.toJson(Map.of("error", ex.getMessage()));
             } finally {
                 cleanupPart(filePart);
-                deleteIfExists(tempUpload);
-                deleteIfExists(backup);
+                if (!queued) {
+                    deleteIfExists(tempUpload);
+                    deleteIfExists(backup);
+                }
             }
         });
 
@@ -313,27 +757,26 @@ public class JourneyAPI {
                     throw new IllegalArgumentException("Schedule not found: " + pathParam);
                 }
 
-                Files.createDirectories(TRASH_DIR);
                 DeletedScheduleEntry entry = DeletedScheduleEntry.create(pathParam, category, target);
-                Files.copy(target, entry.storagePath(), StandardCopyOption.REPLACE_EXISTING);
-
                 Path backup = Files.createTempFile("schedule-delete-", ".csv");
-                Files.copy(target, backup, StandardCopyOption.REPLACE_EXISTING);
-                Files.delete(target);
-
-                try {
-                    TransitSystem refreshed = buildTransitSystem();
-                    systemRef.set(refreshed);
-                    recordDeletion(entry);
-                } catch (IOException reloadEx) {
-                    Files.copy(backup, target, StandardCopyOption.REPLACE_EXISTING);
-                    deleteIfExists(entry.storagePath());
-                    throw reloadEx;
-                } finally {
-                    deleteIfExists(backup);
-                }
-
-                return gson.toJson(Map.of("status", "ok", "message", "Schedule deleted"));
+                ReloadManager.Change change = ReloadManager.Change.scheduleFile(target, category.operator)
+                        .apply(() -> {
+                            if (!Files.exists(target)) {
+                                throw new IllegalArgumentException("Schedule not found: " + pathParam);
+                            }
+                            Files.createDirectories(TRASH_DIR);
+                            Files.copy(target, entry.storagePath(), StandardCopyOption.REPLACE_EXISTING);
+                            Files.copy(target, backup, StandardCopyOption.REPLACE_EXISTING);
+                            Files.delete(target);
+                        })
+                        .revert(() -> {
+                            Files.copy(backup, target, StandardCopyOption.REPLACE_EXISTING);
+                            Files.deleteIfExists(entry.storagePath());
+                        })
+                        .commit(() -> recordDeletion(entry))
+                        .cleanup(() -> Files.deleteIfExists(backup));
+                ReloadManager.Job job = reloads.submit("Delete " + relativePath(target), change);
+                return accepted(res, job, "Schedule delete queued", Map.of());
             } catch (IllegalArgumentException iae) {
                 res.status(400);
                 return gson.toJson(Map.of("error", iae.getMessage()));
@@ -378,22 +821,27 @@ public class JourneyAPI {
                     throw new IllegalArgumentException("A schedule already exists at " + match.relativePath);
                 }
 
-                Files.createDirectories(restoreTarget.getParent());
-                Files.copy(storage, restoreTarget, StandardCopyOption.REPLACE_EXISTING);
-
-                try {
-                    TransitSystem refreshed = buildTransitSystem();
-                    systemRef.set(refreshed);
-                } catch (IOException reloadEx) {
-                    deleteIfExists(restoreTarget);
-                    throw reloadEx;
-                }
-
-                entries.removeIf(e -> e != null && idParam.equals(e.id));
-                saveTrashEntries(entries);
-                deleteIfExists(storage);
-
-                return gson.toJson(Map.of("status", "ok", "message", "Schedule restored", "path", match.relativePath));
+                String relative = match.relativePath;
+                ReloadManager.Change change = ReloadManager.Change.scheduleFile(restoreTarget, category.operator)
+                        .apply(() -> {
+                            if (Files.exists(restoreTarget)) {
+                                throw new IllegalArgumentException("A schedule already exists at " + relative);
+                            }
+                            if (!Files.exists(storage)) {
+                                throw new IllegalArgumentException("Backup data missing for deleted schedule");
+                            }
+                            Files.createDirectories(restoreTarget.getParent());
+                            Files.copy(storage, restoreTarget);
+                        })
+                        .revert(() -> Files.deleteIfExists(restoreTarget))
+                        .commit(() -> {
+                            List<DeletedScheduleEntry> remaining = loadTrashEntries();
+                            remaining.removeIf(e -> e != null && idParam.equals(e.id));
+                            saveTrashEntries(remaining);
+                            Files.deleteIfExists(storage);
+                        });
+                ReloadManager.Job job = reloads.submit("Restore " + relative, change);
+                return accepted(res, job, "Schedule restore queued", Map.of("path", relative));
             } catch (IllegalArgumentException iae) {
                 res.status(400);
                 return gson.toJson(Map.of("error", iae.getMessage()));
@@ -405,21 +853,68 @@ public class JourneyAPI {
 
         post("/admin/schedules/reload", (req, res) -> {
             res.type("application/json");
-            try {
-                TransitSystem refreshed = buildTransitSystem();
-                systemRef.set(refreshed);
-                return gson.toJson(Map.of("status", "ok", "message", "Transit data reloaded"));
-            } catch (IOException io) {
+            ReloadManager.Job job = reloads.submit("Reload all schedules", ReloadManager.Change.fullReload());
+            return accepted(res, job, "Transit data reload queued", Map.of());
+        });
+
+        get("/admin/reload", (req, res) -> {
+            res.type("application/json");
+            Map<String, Object> body = new LinkedHashMap<>();
+            TransitSystem system = systemRef.get();
+            body.put("servingGeneration", system != null ? system.getGeneration() : null);
+            body.put("queued", reloads.queued());
+            body.put("jobs", reloads.describeRecent());
+            return gson.toJson(body);
+        });
+
+        get("/admin/reload/:id", (req, res) -> {
+            res.type("application/json");
+            Optional<ReloadManager.Job> job = reloads.job(req.params(":id"));
+            if (job.isEmpty()) {
+                res.status(404);
+                return gson.toJson(Map.of("error", "Unknown reload job"));
+            }
+            Map<String, Object> body = job.get().describe();
+            TransitSystem system = systemRef.get();
+            body.put("servingGeneration", system != null ? system.getGeneration() : null);
+            return gson.toJson(body);
+        });
+
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return metricsText(systemRef.get());
+        });
+
+        get("/admin/memory", (req, res) -> {
+            res.type("application/json");
+            TransitSystem system = systemRef.get();
+            if (system == null) {
                 res.status(500);
-                return gson.toJson(Map.of("error", "Reload failed: " + io.getMessage()));
+                return gson.toJson(Map.of("error", "Backend not initialized"));
             }
+            return gson.toJson(HeapFootprint.describe(system));
+        });
+
+        get("/admin/admission", (req, res) -> {
+            res.type("application/json");
+            return gson.toJson(ADMISSION.stats());
         });
 
+        get("/admin/jfr", (req, res) -> {
+            res.type("application/json");
+            return gson.toJson(FLIGHT_RECORDER.status());
+        });
+
+        post("/admin/jfr/start", (req, res) -> recordingAction(res, () -> FLIGHT_RECORDER.start(req.queryParams("settings"))));
+        post("/admin/jfr/dump", (req, res) -> recordingAction(res, FLIGHT_RECORDER::dump));
+        post("/admin/jfr/stop", (req, res) -> recordingAction(res, FLIGHT_RECORDER::stop));
+
 
         try {
             init();
             awaitInitialization();
             System.out.println("JourneyAPI listening on port " + port);
+            initialLoad.start();
             awaitStop();
         } catch (Exception e) {
             System.err.println("[ERROR] Spark startup failed: " + e.getMessage());
@@ -427,10 +922,122 @@ public class JourneyAPI {
         }
     }
 
+    /** Runs the route only if the admission controller grants a slot; otherwise sheds it with a 503. */
+    private static Route admitted(AdmissionController.Priority priority, Route route) {
+        return (req, res) -> {
+            long start = System.nanoTime();
+            boolean handled = false;
+            try {
+                if (!ADMISSION.acquire(priority)) {
+                    res.status(503);
+                    res.type("application/json");
+                    res.header("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+                    handled = true;
+                    return gson.toJson(Map.of("error", "Server busy, please retry later"));
+                }
+                try {
+                    Object body = route.handle(req, res);
+                    handled = true;
+                    return body;
+                } finally {
+                    ADMISSION.release();
+                }
+            } finally {
+                Metrics.observeRequest(req.matchedPath(), handled ? res.raw().getStatus() : 500, System.nanoTime() - start);
+            }
+        };
+    }
+
+    /** Appends the /journey query to the slow query log if it took longer than the threshold. */
+    private static void logIfSlow(Request req, TransitSystem system, QueryContext context, long startedNanos,
+                                  String outcome, int steps) {
+        long elapsed = System.nanoTime() - startedNanos;
+        if (!SLOW_QUERIES.isSlow(elapsed)) return;
+
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String name : JOURNEY_PARAMS) {
+            String value = trim(req.queryParams(name));
+            if (value != null && !value.isEmpty()) {
+                params.put(name, value);
+            }
+        }
+        SLOW_QUERIES.append(SlowQueryLog.entry(req.matchedPath(), params, system.resolveDayType(params.get("date")),
+                system.getGeneration(), elapsed, outcome, steps, context));
+    }
+
+    /** Runs a flight recorder admin action, mapping misuse to 409/400 and I/O failures to 500. */
+    private static String recordingAction(Response res, RecordingAction action) {
+        res.type("application/json");
+        try {
+            return gson.toJson(action.run());
+        } catch (IllegalStateException ise) {
+            res.status(409);
+            return gson.toJson(Map.of("error", ise.getMessage()));
+        } catch (IllegalArgumentException iae) {
+            res.status(400);
+            return gson.toJson(Map.of("error", iae.getMessage()));
+        } catch (IOException io) {
+            res.status(500);
+            return gson.toJson(Map.of("error", "Recording failed: " + io.getMessage()));
+        }
+    }
+
+    private interface RecordingAction {
+        Map<String, Object> run() throws IOException;
+    }
+
     /** Constructs a TransitSystem instance by loading schedule data and walking edges. */
+    private static TransitSystem loadTransitSystem() throws IOException {
+        return ReloadManager.measured(TransitSystem::new);
+    }
+
+    /** 202 response for a queued reload job, with where to follow its progress. */
+    private static String accepted(Response res, ReloadManager.Job job, String message, Map<String, Object> extra) {
+        res.status(202);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", "accepted");
+        body.put("message", message);
+        body.put("jobId", job.getId());
+        body.put("statusUrl", "/admin/reload/" + job.getId());
+        body.putAll(extra);
+        return gson.toJson(body);
+    }
 
-    private static TransitSystem buildTransitSystem() throws IOException {
-        return new TransitSystem();
+    private static void warmUp(TransitSystem system) {
+        if (WARMUP_QUERIES <= 0) return;
+        Path corpus = WARMUP_CORPUS == null || WARMUP_CORPUS.isBlank() ? null : Paths.get(WARMUP_CORPUS);
+        lastWarmup = Warmup.run(system, corpus, WARMUP_QUERIES, WARMUP_MAX_MS);
+    }
+
+    /** Prometheus text exposition of the recorded metrics plus gauges read from the live system. */
+    private static String metricsText(TransitSystem system) {
+        StringBuilder out = new StringBuilder(8192);
+        Metrics.render(out);
+        if (system != null) {
+            DataLoader loader = system.getLoader();
+            long walkingEdges = 0;
+            for (List<WalkingEdge> edges : loader.walkingEdges.values()) {
+                walkingEdges += edges.size();
+            }
+            Metrics.gauge(out, "journey_dataset_generation", "Generation of the loaded transit data.", system.getGeneration());
+            Metrics.gauge(out, "journey_dataset_stops", "Stops in the loaded transit data.", loader.stops.size());
+            Metrics.gauge(out, "journey_dataset_trips", "Trips in the loaded transit data.", loader.trips.size());
+            Metrics.gauge(out, "journey_dataset_walking_edges", "Walking edges between stops.", walkingEdges);
+            Metrics.gauge(out, "journey_dataset_departures", "Indexed departures across all stops.", system.getDepartureIndex().size());
+            Metrics.counter(out, "journey_coalescer_computed_total", "Searches run by the in-flight coalescer.",
+                    system.getQueryCoalescer().getComputedCount());
+            Metrics.counter(out, "journey_coalescer_shared_total", "Queries answered by another caller's search.",
+                    system.getQueryCoalescer().getCoalescedCount());
+        }
+        Map<String, Object> cache = JOURNEY_CACHE.stats();
+        Metrics.gauge(out, "journey_cache_entries", "Cached /journey responses.", ((Number) cache.get("entries")).doubleValue());
+        Metrics.gauge(out, "journey_cache_bytes", "Estimated bytes held by the response cache.", ((Number) cache.get("bytes")).doubleValue());
+        Metrics.counter(out, "journey_cache_hits_total", "Response cache hits.", ((Number) cache.get("hits")).doubleValue());
+        Metrics.counter(out, "journey_cache_misses_total", "Response cache misses.", ((Number) cache.get("misses")).doubleValue());
+        Metrics.counter(out, "journey_cache_evictions_total", "Response cache evictions.", ((Number) cache.get("evictions")).doubleValue());
+        Metrics.gauge(out, "journey_admission_queue_depth", "Query requests waiting for a slot.", ADMISSION.getQueueDepth());
+        Metrics.counter(out, "journey_admission_rejected_total", "Query requests shed by admission control.", ADMISSION.getRejectedCount());
+        return out.toString();
     }
 
     /** Creates data directories and trash storage if they are missing. */
@@ -481,6 +1088,442 @@ public class JourneyAPI {
         return resolveParam(req, payload, "path");
     }
 
+    /** Reads a scalar JSON field as a trimmed string, accepting lists for comma-separated values. */
+
+    private static String payloadString(Map<String, Object> payload, String key) {
+        Object value = payload.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof List<?> list) {
+            List<String> parts = new ArrayList<>();
+            for (Object item : list) {
+                if (item != null) parts.add(item.toString().trim());
+            }
+            return String.join(",", parts);
+        }
+        if (value instanceof Number number && number.doubleValue() == Math.rint(number.doubleValue())) {
+            return Long.toString(number.longValue());
+        }
+        return value.toString().trim();
+    }
+
+    /** Parses a JSON list of stop names or {lat,lng}/{name} objects into journey endpoints. */
+
+    private static List<JourneyEndpoint> parseEndpoints(Object raw, String field) {
+        if (!(raw instanceof List<?> list) || list.isEmpty()) {
+            throw new IllegalArgumentException("Missing required field: " + field);
+        }
+        List<JourneyEndpoint> endpoints = new ArrayList<>();
+        for (Object item : list) {
+            if (item instanceof String name && !name.isBlank()) {
+                endpoints.add(JourneyEndpoint.ofStopName(name));
+            } else if (item instanceof Map<?, ?> map) {
+                Object lat = map.get("lat");
+                Object lng = map.containsKey("lng") ? map.get("lng") : map.get("lon");
+                Object name = map.get("name");
+                if (lat instanceof Number latNum && lng instanceof Number lngNum) {
+                    endpoints.add(JourneyEndpoint.ofCoordinates(latNum.doubleValue(), lngNum.doubleValue()));
+                } else if (name != null && !name.toString().isBlank()) {
+                    endpoints.add(JourneyEndpoint.ofStopName(name.toString()));
+                } else {
+                    throw new IllegalArgumentException("Each entry in " + field + " needs a name or lat/lng");
+                }
+            } else {
+                throw new IllegalArgumentException("Each entry in " + field + " needs a name or lat/lng");
+            }
+        }
+        return endpoints;
+    }
+
+    /** Shapes a travel-time matrix into the JSON payload returned by /matrix. */
+
+    private static Map<String, Object> matrixToMap(TravelTimeMatrix matrix,
+                                                   List<JourneyEndpoint> origins,
+                                                   List<JourneyEndpoint> destinations,
+                                                   String time,
+                                                   String dayType,
+                                                   DataLoader loader) {
+        List<List<Integer>> durations = new ArrayList<>();
+        List<List<String>> arrivals = new ArrayList<>();
+        List<List<Integer>> transfers = new ArrayList<>();
+        for (int i = 0; i < matrix.originCount(); i++) {
+            List<Integer> durationRow = new ArrayList<>();
+            List<String> arrivalRow = new ArrayList<>();
+            List<Integer> transferRow = new ArrayList<>();
+            for (int j = 0; j < matrix.destinationCount(); j++) {
+                durationRow.add(matrix.getDurationMinutes(i, j));
+                arrivalRow.add(matrix.getArrivalTime(i, j));
+                transferRow.add(matrix.getTransfers(i, j));
+            }
+            durations.add(durationRow);
+            arrivals.add(arrivalRow);
+            transfers.add(transferRow);
+        }
+
+        List<Map<String, Object>> originEntries = new ArrayList<>();
+        for (int i = 0; i < origins.size(); i++) {
+            originEntries.add(matrixEndpointEntry(origins.get(i), matrix.getOriginStopId(i), loader));
+        }
+        List<Map<String, Object>> destinationEntries = new ArrayList<>();
+        for (int j = 0; j < destinations.size(); j++) {
+            destinationEntries.add(matrixEndpointEntry(destinations.get(j), matrix.getDestinationStopId(j), loader));
+        }
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("departure", time);
+        payload.put("dayType", dayType);
+        payload.put("origins", originEntries);
+        payload.put("destinations", destinationEntries);
+        payload.put("durationMinutes", durations);
+        payload.put("arrivalTimes", arrivals);
+        payload.put("transfers", transfers);
+        List<Integer> truncatedOrigins = new ArrayList<>();
+        for (int i = 0; i < matrix.originCount(); i++) {
+            if (matrix.isTruncated(i)) truncatedOrigins.add(i);
+        }
+        payload.put("truncatedOrigins", truncatedOrigins);
+        return payload;
+    }
+
+    private static Map<String, Object> matrixEndpointEntry(JourneyEndpoint endpoint, Integer stopId, DataLoader loader) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("query", endpoint.toString());
+        if (stopId == null) {
+            entry.put("error", "No matching stop");
+        } else {
+            entry.put("stopId", stopId);
+            entry.put("stop", loader.getStopNameById(stopId));
+        }
+        return entry;
+    }
+
+    private static int parseStopId(String raw) {
+        try {
+            return Integer.parseInt(raw == null ? "" : raw.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Stop id must be an integer");
+        }
+    }
+
+    /** Parses the batch body; malformed entries become per-query errors instead of failing the batch. */
+    private static List<BatchQuery> parseBatchQueries(Object raw, TransitSystem system) {
+        if (!(raw instanceof List<?> list) || list.isEmpty()) {
+            throw new IllegalArgumentException("Missing required field: queries");
+        }
+        if (list.size() > MAX_BATCH_QUERIES) {
+            throw new IllegalArgumentException("Batch too large: at most " + MAX_BATCH_QUERIES + " queries per request");
+        }
+
+        List<BatchQuery> queries = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            BatchQuery query = new BatchQuery(i);
+            queries.add(query);
+            try {
+                if (!(list.get(i) instanceof Map<?, ?> rawItem)) {
+                    throw new IllegalArgumentException("Each query must be a JSON object");
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> item = (Map<String, Object>) rawItem;
+                query.id = payloadString(item, "id");
+
+                String time = payloadString(item, "time");
+                if (time == null || time.isEmpty()) {
+                    throw new IllegalArgumentException("Missing required field: time");
+                }
+                Raptor.timeToMinutes(time);
+                query.time = time;
+                query.date = payloadString(item, "date");
+                query.preferences = QueryPreferences.fromRawInputs(
+                        payloadString(item, "modes"),
+                        payloadString(item, "maxWalkMeters"),
+                        TransitSystem.getDefaultMaxConsecutiveWalkKm(),
+                        TransitSystem.getDefaultMaxCumulativeWalkKm()
+                );
+                if (!query.preferences.isValid()) {
+                    throw new IllegalArgumentException("Invalid transport preference configuration");
+                }
+                query.origin = payloadEndpoint(item, "from", "fromLat", "fromLng");
+                query.destination = payloadEndpoint(item, "to", "toLat", "toLng");
+                if (query.origin == null || query.destination == null) {
+                    throw new IllegalArgumentException("Missing required fields: coordinates or place names");
+                }
+                query.dayType = system.resolveDayType(query.date);
+                query.groupKey = query.origin + "|" + Raptor.timeToMinutes(time) + "|" + query.dayType
+                        + "|" + query.preferences.fingerprint();
+            } catch (RuntimeException e) {
+                query.fail(e instanceof IllegalArgumentException ? e.getMessage() : "Invalid query: " + e.getMessage());
+            }
+        }
+        return queries;
+    }
+
+    /** Runs one shared search for a group, then answers each of its queries from it. */
+    private static void runBatchGroup(TransitSystem system, List<BatchQuery> group, QueryContext context) {
+        BatchQuery first = group.get(0);
+        TransitSystem.OriginSearch search;
+        try {
+            if (context.deadlineReached()) throw new QueryTimeoutException();
+            search = system.searchFrom(first.origin, first.time, first.date, first.preferences, context);
+        } catch (RuntimeException e) {
+            for (BatchQuery query : group) {
+                query.fail(batchError(e));
+            }
+            return;
+        }
+
+        for (BatchQuery query : group) {
+            try {
+                List<PathStep> path = search.journeyTo(query.destination);
+                query.complete(path, system.getLoader());
+            } catch (RuntimeException e) {
+                query.fail(batchError(e));
+            }
+        }
+    }
+
+    /**
+     * Waits for a query's entry until the batch deadline; a query whose group has not answered
+     * by then gets a timeout entry.
+     */
+    private static String awaitResult(BatchQuery query, QueryContext deadline) throws InterruptedException {
+        try {
+            return query.result.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            query.fail(new QueryTimeoutException().getMessage());
+            return query.result.join();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static String batchError(RuntimeException e) {
+        if (e instanceof IllegalArgumentException || e instanceof QueryTimeoutException) {
+            return e.getMessage();
+        }
+        e.printStackTrace();
+        return "Internal error: " + e.getMessage();
+    }
+
+    /** Reads a journey endpoint from a batch entry's place-name field or lat/lng pair. */
+    private static JourneyEndpoint payloadEndpoint(Map<String, Object> item, String nameField, String latField, String lngField) {
+        String lat = payloadString(item, latField);
+        String lng = payloadString(item, lngField);
+        if (lat != null && !lat.isEmpty() && lng != null && !lng.isEmpty()) {
+            return JourneyEndpoint.ofCoordinates(Double.parseDouble(lat), Double.parseDouble(lng));
+        }
+        String name = payloadString(item, nameField);
+        return name == null || name.isEmpty() ? null : JourneyEndpoint.ofStopName(name);
+    }
+
+    /** One entry of a /journey/batch request and the future its response entry completes. */
+    private static final class BatchQuery {
+        final int index;
+        /** Serialized response entry for this query. */
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        String id;
+        String time;
+        String date;
+        String dayType;
+        QueryPreferences preferences;
+        JourneyEndpoint origin;
+        JourneyEndpoint destination;
+        String groupKey;
+
+        BatchQuery(int index) {
+            this.index = index;
+        }
+
+        void complete(List<PathStep> path, DataLoader loader) {
+            StringWriter entry = new StringWriter();
+            try {
+                JsonWriter json = writeHeader(entry);
+                JourneyJsonWriter.writeJourneyMembers(json, path, dayType, preferences.requiresCSA(), loader);
+                json.endObject();
+                json.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            result.complete(entry.toString());
+        }
+
+        void fail(String message) {
+            groupKey = null;
+            StringWriter entry = new StringWriter();
+            try {
+                JsonWriter json = writeHeader(entry);
+                json.name("error").value(message);
+                json.endObject();
+                json.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            result.complete(entry.toString());
+        }
+
+        private JsonWriter writeHeader(Writer out) throws IOException {
+            JsonWriter json = JourneyJsonWriter.newWriter(out);
+            json.beginObject();
+            json.name("index").value(index);
+            if (id != null) json.name("id").value(id);
+            return json;
+        }
+    }
+
+    /** Accepts the optional format param: "compact" or "full" (the default). */
+    private static boolean isCompactFormat(String format) {
+        if (format == null || format.isEmpty() || format.equalsIgnoreCase("full")) return false;
+        if (format.equalsIgnoreCase("compact")) return true;
+        throw new IllegalArgumentException("format must be 'full' or 'compact'");
+    }
+
+    /**
+     * Picks a response encoding from an Accept-Encoding header: gzip, then deflate, honoring
+     * q-values (q=0 refuses a coding). Returns null when the body should be sent uncompressed.
+     */
+    private static String negotiateEncoding(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) return null;
+        Double gzip = null;
+        Double deflate = null;
+        double wildcard = 0.0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] pieces = part.trim().split(";");
+            String coding = pieces[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1.0;
+            for (int i = 1; i < pieces.length; i++) {
+                String param = pieces[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0.0;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = q;
+                case "deflate" -> deflate = q;
+                case "*" -> wildcard = q;
+                default -> { }
+            }
+        }
+        // Codings not listed explicitly take the wildcard's q-value.
+        double gzipQ = gzip != null ? gzip : wildcard;
+        double deflateQ = deflate != null ? deflate : wildcard;
+        if (gzipQ > 0.0 && gzipQ >= deflateQ) return "gzip";
+        if (deflateQ > 0.0) return "deflate";
+        return null;
+    }
+
+    /** Opens the response body, compressed with the negotiated encoding when there is one. */
+    private static Writer openBody(Response res, String encoding) throws IOException {
+        res.header("Vary", "Accept-Encoding");
+        OutputStream out = res.raw().getOutputStream();
+        if ("gzip".equals(encoding)) {
+            res.header("Content-Encoding", "gzip");
+            out = new GZIPOutputStream(out, 8192);
+        } else if ("deflate".equals(encoding)) {
+            res.header("Content-Encoding", "deflate");
+            out = new DeflaterOutputStream(out);
+        }
+        return new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    /** Forwards writes to the response while keeping a copy of everything written. */
+    private static final class CopyingWriter extends Writer {
+        private final Writer target;
+        private final Writer copy;
+
+        CopyingWriter(Writer target, Writer copy) {
+            this.target = target;
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) throws IOException {
+            target.write(buf, off, len);
+            copy.write(buf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            target.write(str, off, len);
+            copy.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+
+    /** Reads a journey endpoint from either a place-name param or a lat/lng param pair. */
+    private static JourneyEndpoint requestEndpoint(Request req, String nameParam, String latParam, String lngParam) {
+        String lat = trim(req.queryParams(latParam));
+        String lng = trim(req.queryParams(lngParam));
+        if (lat != null && !lat.isEmpty() && lng != null && !lng.isEmpty()) {
+            return JourneyEndpoint.ofCoordinates(Double.parseDouble(lat), Double.parseDouble(lng));
+        }
+        String name = trim(req.queryParams(nameParam));
+        return name == null || name.isEmpty() ? null : JourneyEndpoint.ofStopName(name);
+    }
+
+    /** Serializes a /journey body, prefixed with the RAPTOR round when one is given. */
+    private static String journeyJson(Integer round, List<PathStep> path, String dayType, boolean useCSA, DataLoader loader) {
+        StringWriter out = new StringWriter();
+        try {
+            JsonWriter json = JourneyJsonWriter.newWriter(out);
+            json.beginObject();
+            if (round != null) json.name("round").value(round);
+            JourneyJsonWriter.writeJourneyMembers(json, path, dayType, useCSA, loader);
+            json.endObject();
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /** Writes one Server-Sent Event with a JSON data line and flushes it to the client. */
+    private static void sendEvent(OutputStream out, String event, String json) {
+        String frame = "event: " + event + "\ndata: " + json + "\n\n";
+        try {
+            out.write(frame.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Sends a stream's error event; a client that has already gone needs no error. */
+    private static void sendErrorEvent(OutputStream out, String message) {
+        try {
+            sendEvent(out, "error", gson.toJson(Map.of("error", message)));
+        } catch (UncheckedIOException disconnected) {
+            // The outcome is already counted; there is no one left to tell.
+        }
+    }
+
+    /** Parses an optional positive limit parameter, capped at {@code max}. */
+    private static int parseLimit(String raw, int defaultLimit, int max) {
+        if (raw == null || raw.isEmpty()) return defaultLimit;
+        int limit;
+        try {
+            limit = Integer.parseInt(raw);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit must be a positive integer");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be a positive integer");
+        }
+        return Math.min(limit, max);
+    }
+
     private static String trim(String s) {
         return (s == null) ? null : s.trim();
     }
@@ -740,188 +1783,6 @@ public class JourneyAPI {
         }
     }
 
-    /** Groups raw PathStep output into user-facing legs with timing and stop lists. */
-
-    private static List<Map<String, Object>> buildLegs(List<PathStep> steps, DataLoader loader) {
-        List<Map<String, Object>> legs = new ArrayList<>();
-        if (steps == null || steps.isEmpty()) {
-            return legs;
-        }
-
-        Map<String, Object> currentLeg = null;
-        List<Map<String, Object>> currentStops = new ArrayList<>();
-
-        for (PathStep step : steps) {
-            if (currentLeg == null || (step.getTripID() != null && !step.getTripID().equals(currentLeg.get("tripId")))) {
-                if (currentLeg != null) {
-                    finalizeLeg(currentLeg);
-                    currentLeg.put("stops", currentStops);
-                    legs.add(currentLeg);
-                    currentStops = new ArrayList<>();
-                }
-                currentLeg = new LinkedHashMap<>();
-                String tripId = step.getTripID();
-                currentLeg.put("tripId", tripId);
-                currentLeg.put("mode", resolveMode(step));
-                currentLeg.put("operator", deriveOperator(tripId, loader));
-                currentLeg.put("line", deriveLine(tripId));
-                currentLeg.put("startTime", step.getTime());
-                currentLeg.put("startStop", step.getStopName());
-                currentLeg.put("startCoords", coordsFor(step, loader));
-                currentLeg.put("distanceKm", step.isWalking() ? step.getDistanceKm() : 0.0);
-            } else if (step.isWalking()) {
-                double existing = ((Number) currentLeg.getOrDefault("distanceKm", 0.0)).doubleValue();
-                if (step.getDistanceKm() > existing) {
-                    currentLeg.put("distanceKm", step.getDistanceKm());
-                }
-            }
-
-            Map<String, Object> stopEntry = new LinkedHashMap<>();
-            stopEntry.put("time", step.getTime());
-            stopEntry.put("stop", step.getStopName());
-            stopEntry.put("coords", coordsFor(step, loader));
-            currentStops.add(stopEntry);
-
-            currentLeg.put("endTime", step.getTime());
-            currentLeg.put("endStop", step.getStopName());
-            currentLeg.put("endCoords", coordsFor(step, loader));
-        }
-
-        if (currentLeg != null) {
-            finalizeLeg(currentLeg);
-            currentLeg.put("stops", currentStops);
-            legs.add(currentLeg);
-        }
-
-        return legs;
-    }
-
-    /** Adds calculated duration metadata before a leg is returned. */
-
-    private static void finalizeLeg(Map<String, Object> leg) {
-        String start = (String) leg.get("startTime");
-        String end = (String) leg.get("endTime");
-        Integer duration = minutesBetween(start, end);
-        if (duration != null) {
-            leg.put("durationMinutes", duration);
-        }
-    }
-
-    /** Returns the minute difference between two HH:MM timestamps if valid. */
-
-    private static Integer minutesBetween(String start, String end) {
-        Integer startMin = timeToMinutes(start);
-        Integer endMin = timeToMinutes(end);
-        if (startMin == null || endMin == null || endMin < startMin) return null;
-        return endMin - startMin;
-    }
-
-    /** Determines the human-readable mode label for a path step. */
-
-    private static String resolveMode(PathStep step) {
-        if (step == null) return "UNKNOWN";
-        if (step.isWalking()) return "WALK";
-        String mode = step.getMode();
-        if (mode == null) return "UNKNOWN";
-        mode = mode.toUpperCase(Locale.ROOT);
-        if (mode.equals("BUS") || mode.equals("TRAIN")) return mode;
-        return "UNKNOWN";
-    }
-
-    private static String deriveLine(String tripId) {
-        if (tripId == null) return "";
-        if (tripId.startsWith("BUS_")) {
-            String[] parts = tripId.split("_");
-            if (parts.length >= 2) return parts[1];
-        }
-        if (tripId.startsWith("TRAIN")) {
-            return "TRAIN";
-        }
-        return tripId;
-    }
-
-    /**
-     * Attempts to resolve a human-friendly operator label for the given trip.
-     * Prefers loader-provided bus operators and falls back to Metrorail for trains.
-     */
-    private static String deriveOperator(String tripId, DataLoader loader) {
-        if (tripId == null || loader == null) return null;
-        Trip trip = loader.trips.get(tripId);
-        if (trip == null) return null;
-        String operator = loader.getRouteOperator(trip.getRoute());
-        if (operator != null && !operator.isBlank()) {
-            return operator;
-        }
-        String mode = trip.getMode();
-        if (mode != null && mode.equalsIgnoreCase("TRAIN")) {
-            return "METRORAIL";
-        }
-        return null;
-    }
-
-    /** Extracts a latitude/longitude pair for a step using cached stop details. */
-
-    private static Map<String, Double> coordsFor(PathStep step, DataLoader loader) {
-        if (step == null) return Map.of();
-        StopLocation loc = loader.stopDetails.get(step.getStopID());
-        if (loc != null) {
-            return Map.of("lat", loc.getLat(), "lon", loc.getLon());
-        }
-        double lat = step.getLat();
-        double lon = step.getLon();
-        if (!Double.isFinite(lat) || !Double.isFinite(lon)) {
-            return Map.of();
-        }
-        if (Math.abs(lat) < 1e-9 && Math.abs(lon) < 1e-9) {
-            return Map.of();
-        }
-        return Map.of("lat", lat, "lon", lon);
-    }
-
-    /** Builds a high-level summary map for a completed journey. */
-
-    private static Map<String, Object> computeSummary(List<PathStep> steps, String dayType) {
-        if (steps.isEmpty()) return Map.of();
-        String firstT = steps.get(0).getTime();
-        String lastT  = steps.get(steps.size() - 1).getTime();
-        int duration = timeToMinutes(lastT) - timeToMinutes(firstT);
-
-        int transfers = 0;
-        String prevTrip = steps.get(0).getTripID();
-        for (int i = 1; i < steps.size(); i++) {
-            String currTrip = steps.get(i).getTripID();
-            if (!Objects.equals(prevTrip, currTrip)) {
-                if (!isWalkTrip(prevTrip) && !isWalkTrip(currTrip)) {
-                    transfers++;
-                }
-            }
-            prevTrip = currTrip;
-        }
-
-        Map<String, Object> summary = new LinkedHashMap<>();
-        summary.put("start", firstT);
-        summary.put("end", lastT);
-        summary.put("durationMinutes", duration);
-        summary.put("transfers", transfers);
-        if (dayType != null && !dayType.isBlank()) {
-            summary.put("dayType", dayType);
-        }
-        return summary;
-    }
-
-    private static boolean isWalkTrip(String tripId) {
-        return tripId != null && tripId.equalsIgnoreCase("WALK");
-    }
-
-    private static int timeToMinutes(String hhmm) {
-        try {
-            String[] p = hhmm.split(":");
-            return Integer.parseInt(p[0]) * 60 + Integer.parseInt(p[1]);
-        } catch (Exception e) {
-            return 0;
-        }
-    }
-
     /** Configures CORS headers so a local static frontend can call the API. */
 
     private static void enableCORS() {
@@ -983,19 +1844,19 @@ public class JourneyAPI {
     }
 
     private enum ScheduleCategory {
-        MYCITI_BUS("MYCITI_BUS", "MyCiTi Bus", "MyCiTi bus schedules", "myciti-bus-schedules") {
+        MYCITI_BUS("MYCITI_BUS", "MyCiTi Bus", "MyCiTi bus schedules", "myciti-bus-schedules", "MYCITI") {
             @Override
             void validate(Path file) throws IOException {
                 validateHeader(file, new String[]{"route_number", "day_type"}, "MyCiTi schedule must start with route_number,day_type");
             }
         },
-        GOLDEN_ARROW_BUS("GOLDEN_ARROW_BUS", "Golden Arrow Bus", "Golden Arrow bus schedules", "ga-bus-schedules") {
+        GOLDEN_ARROW_BUS("GOLDEN_ARROW_BUS", "Golden Arrow Bus", "Golden Arrow bus schedules", "ga-bus-schedules", "GOLDENARROW") {
             @Override
             void validate(Path file) throws IOException {
                 validateHeader(file, new String[]{"day_type"}, "Golden Arrow schedule must start with day_type");
             }
         },
-        TRAIN("TRAIN", "Train", "Train schedules", "train-schedules-2014") {
+        TRAIN("TRAIN", "Train", "Train schedules", "train-schedules-2014", null) {
             @Override
             void validate(Path file) throws IOException {
                 validateHeader(file, new String[]{"trip_id", "day_type", "direction", "route"}, "Train schedule must start with trip_id,day_type,direction,route");
@@ -1006,13 +1867,16 @@ public class JourneyAPI {
         final String label;
         final String description;
         final Path baseDirectory;
+        /** Operator label the loader gives this category's bus routes; null for trains. */
+        final String operator;
         private final String folder;
 
-        ScheduleCategory(String id, String label, String description, String folder) {
+        ScheduleCategory(String id, String label, String description, String folder, String operator) {
             this.id = id;
             this.label = label;
             this.description = description;
             this.folder = folder;
+            this.operator = operator;
             this.baseDirectory = DATA_ROOT.resolve(folder).normalize();
         }
 
@@ -1063,7 +1927,11 @@ public class JourneyAPI {
                 if (header == null) {
                     throw new IllegalArgumentException("CSV file is empty");
                 }
-                String[] columns = header.split(",", -1);
+                String[] columns;
+                try (CsvReader headerRow = new CsvReader(new StringReader(header))) {
+                    headerRow.next();
+                    columns = headerRow.toArray();
+                }
                 if (columns.length < requiredColumns.length) {
                     throw new IllegalArgumentException(errorMessage);
                 }
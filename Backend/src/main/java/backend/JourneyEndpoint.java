@@ -0,0 +1,60 @@
+package backend;
+
+import java.util.Locale;
+
+/**
+ * One end of a journey request: either a named stop or a latitude/longitude pair.
+ */
+public final class JourneyEndpoint {
+    private final String stopName;
+    private final double lat;
+    private final double lng;
+    private final boolean coordinates;
+
+    private JourneyEndpoint(String stopName, double lat, double lng, boolean coordinates) {
+        this.stopName = stopName;
+        this.lat = lat;
+        this.lng = lng;
+        this.coordinates = coordinates;
+    }
+
+    /** Creates an endpoint resolved through stop-name lookup. */
+    public static JourneyEndpoint ofStopName(String stopName) {
+        if (stopName == null || stopName.isBlank()) {
+            throw new IllegalArgumentException("Stop name must not be blank");
+        }
+        return new JourneyEndpoint(stopName.trim(), 0.0, 0.0, false);
+    }
+
+    /** Creates an endpoint snapped to nearby stops by coordinates. */
+    public static JourneyEndpoint ofCoordinates(double lat, double lng) {
+        if (!Double.isFinite(lat) || !Double.isFinite(lng)) {
+            throw new IllegalArgumentException("Coordinates must be finite numbers");
+        }
+        return new JourneyEndpoint(null, lat, lng, true);
+    }
+
+    public boolean isCoordinates() {
+        return coordinates;
+    }
+
+    public String getStopName() {
+        return stopName;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLng() {
+        return lng;
+    }
+
+    @Override
+    public String toString() {
+        if (coordinates) {
+            return String.format(Locale.ROOT, "%.6f,%.6f", lat, lng);
+        }
+        return stopName;
+    }
+}
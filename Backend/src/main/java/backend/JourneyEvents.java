@@ -0,0 +1,132 @@
+package backend;
+
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for data loading and query execution. Events are cheap when no
+ * recording is running: {@link Event#isEnabled()} is false and nothing is committed.
+ */
+public final class JourneyEvents {
+
+    private JourneyEvents() {
+    }
+
+    /** Starts timing a load phase; pair with {@link #endLoad}. */
+    static LoadPhase beginLoad(String phase) {
+        LoadPhase event = new LoadPhase();
+        if (event.isEnabled()) {
+            event.phase = phase;
+            event.begin();
+        }
+        return event;
+    }
+
+    /** Ends a load phase, recording the loader's size once the phase has run. */
+    static void endLoad(LoadPhase event, DataLoader loader, int files) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.files = files;
+            event.stops = loader.stops.size();
+            event.trips = loader.trips.size();
+            event.commit();
+        }
+    }
+
+    /** Starts timing a query; pair with {@link #endQuery}. */
+    static Query beginQuery() {
+        Query event = new Query();
+        if (event.isEnabled()) {
+            event.begin();
+        }
+        return event;
+    }
+
+    /** Ends a query event, describing its endpoints by the closest access and egress stops. */
+    static void endQuery(Query event, String engine, String dayType, String departureTime,
+                         List<WalkingEdge> access, List<WalkingEdge> egress, int resultSteps, boolean truncated) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.engine = engine;
+        event.dayType = dayType;
+        event.departureTime = departureTime;
+        event.originStop = closestStop(access, true);
+        event.destinationStop = closestStop(egress, false);
+        event.accessStops = access.size();
+        event.egressStops = egress.size();
+        event.resultSteps = resultSteps;
+        event.truncated = truncated;
+        event.commit();
+    }
+
+    private static int closestStop(List<WalkingEdge> edges, boolean access) {
+        WalkingEdge closest = null;
+        for (WalkingEdge edge : edges) {
+            if (closest == null || edge.getDistanceKm() < closest.getDistanceKm()) {
+                closest = edge;
+            }
+        }
+        if (closest == null) return -1;
+        return access ? closest.getToStopId() : closest.getFromStopId();
+    }
+
+    /** One phase of building a {@link TransitSystem}. */
+    @Name("backend.LoadPhase")
+    @Label("Transit Data Load Phase")
+    @Category({"Journey Planner", "Loading"})
+    @Description("A phase of the TransitSystem constructor")
+    public static final class LoadPhase extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Files Read")
+        int files;
+
+        @Label("Stops After Phase")
+        int stops;
+
+        @Label("Trips After Phase")
+        int trips;
+    }
+
+    /** One engine search with the endpoints and result it produced. */
+    @Name("backend.Query")
+    @Label("Journey Query")
+    @Category({"Journey Planner", "Queries"})
+    @Description("A RAPTOR or CSA search including egress selection and path reconstruction")
+    public static final class Query extends Event {
+        @Label("Engine")
+        String engine;
+
+        @Label("Day Type")
+        String dayType;
+
+        @Label("Departure Time")
+        String departureTime;
+
+        @Label("Origin Stop")
+        @Description("Nearest access stop, or the named origin stop")
+        int originStop;
+
+        @Label("Destination Stop")
+        @Description("Nearest egress stop, or the named destination stop")
+        int destinationStop;
+
+        @Label("Access Stops")
+        int accessStops;
+
+        @Label("Egress Stops")
+        int egressStops;
+
+        @Label("Result Steps")
+        int resultSteps;
+
+        @Label("Truncated")
+        @Description("The search stopped at its deadline")
+        boolean truncated;
+    }
+}
@@ -0,0 +1,446 @@
+package backend;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Writes /journey response bodies straight from a planned path with a streaming {@link JsonWriter},
+ * producing the same JSON as serializing the old summary/legs maps without building them.
+ */
+public final class JourneyJsonWriter {
+
+    private JourneyJsonWriter() {
+    }
+
+    /** Creates a writer configured like the API's default Gson instance. */
+    public static JsonWriter newWriter(Writer out) {
+        JsonWriter json = new JsonWriter(out);
+        json.setHtmlSafe(true);
+        json.setSerializeNulls(false);
+        return json;
+    }
+
+    /** Writes a complete /journey body; an empty path produces the "No route found" body. */
+    public static void writeJourney(Writer out, List<PathStep> path, String dayType, boolean useCSA, DataLoader loader)
+            throws IOException {
+        writeJourney(out, path, dayType, useCSA, loader, null);
+    }
+
+    /** As above, appending a "debug" member with the search statistics when {@code stats} is set. */
+    public static void writeJourney(Writer out, List<PathStep> path, String dayType, boolean useCSA, DataLoader loader,
+                                    SearchStats stats) throws IOException {
+        JsonWriter json = newWriter(out);
+        json.beginObject();
+        writeJourneyMembers(json, path, dayType, useCSA, loader);
+        writeDebug(json, stats);
+        json.endObject();
+        json.flush();
+    }
+
+    /** Writes the "debug" member for a query that collected statistics; no-op for null. */
+    private static void writeDebug(JsonWriter json, SearchStats stats) throws IOException {
+        if (stats == null) return;
+        json.name("debug").beginObject();
+        json.name("algorithm").value(stats.getAlgorithm());
+        json.name("coalesced").value(stats.isCoalesced());
+        json.name("originStops").beginArray();
+        for (int stop : stats.getOriginStops()) json.value(stop);
+        json.endArray();
+        json.name("destinationStops").beginArray();
+        for (int stop : stats.getDestinationStops()) json.value(stop);
+        json.endArray();
+        json.name("rounds").value(stats.getRounds());
+        json.name("routesScanned").value(stats.getRoutesScanned());
+        json.name("tripsInspected").value(stats.getTripsInspected());
+        json.name("labelsImproved").value(stats.getLabelsImproved());
+        json.name("footpathRelaxations").value(stats.getFootpathRelaxations());
+        json.name("connectionsScanned").value(stats.getConnectionsScanned());
+        json.name("phaseMillis").beginObject();
+        for (Map.Entry<String, Long> phase : stats.getPhaseNanos().entrySet()) {
+            json.name(phase.getKey()).value(Math.round(phase.getValue() / 1e4) / 100.0);
+        }
+        json.endObject();
+        json.endObject();
+    }
+
+    /** Writes the /journey members ("routes", plus "message" when empty) into an open object. */
+    public static void writeJourneyMembers(JsonWriter json, List<PathStep> path, String dayType, boolean useCSA,
+                                           DataLoader loader) throws IOException {
+        json.name("routes").beginArray();
+        if (path == null || path.isEmpty()) {
+            json.endArray();
+            json.name("message").value("No route found");
+            return;
+        }
+
+        json.beginObject();
+        json.name("summary");
+        writeSummary(json, path, dayType, useCSA);
+        json.name("steps").beginArray();
+        for (PathStep step : path) {
+            writeStep(json, step);
+        }
+        json.endArray();
+        json.name("legs");
+        writeLegs(json, path, loader);
+        json.endObject();
+        json.endArray();
+    }
+
+    /** High-level summary: start/end, duration, transfers, day type and algorithm. */
+    private static void writeSummary(JsonWriter json, List<PathStep> steps, String dayType, boolean useCSA)
+            throws IOException {
+        String firstT = steps.get(0).getTime();
+        String lastT = steps.get(steps.size() - 1).getTime();
+        int duration = timeToMinutes(lastT) - timeToMinutes(firstT);
+
+        int transfers = countTransfers(steps);
+
+        json.beginObject();
+        json.name("start").value(firstT);
+        json.name("end").value(lastT);
+        json.name("durationMinutes").value(duration);
+        json.name("transfers").value(transfers);
+        if (dayType != null && !dayType.isBlank()) {
+            json.name("dayType").value(dayType);
+        }
+        json.name("algorithm").value(useCSA ? "CSA" : "RAPTOR");
+        json.endObject();
+    }
+
+    /** Counts trip changes between consecutive steps, ignoring changes to or from walking. */
+    private static int countTransfers(List<PathStep> steps) {
+        int transfers = 0;
+        String prevTrip = steps.get(0).getTripID();
+        for (int i = 1; i < steps.size(); i++) {
+            String currTrip = steps.get(i).getTripID();
+            if (!Objects.equals(prevTrip, currTrip)) {
+                if (!isWalkTrip(prevTrip) && !isWalkTrip(currTrip)) {
+                    transfers++;
+                }
+            }
+            prevTrip = currTrip;
+        }
+        return transfers;
+    }
+
+    /** Raw path step, with the field names and null handling of reflective serialization. */
+    private static void writeStep(JsonWriter json, PathStep step) throws IOException {
+        json.beginObject();
+        if (step.getTripID() != null) json.name("tripID").value(step.getTripID());
+        json.name("stopID").value(step.getStopID());
+        if (step.getStopName() != null) json.name("stopName").value(step.getStopName());
+        if (step.getTime() != null) json.name("time").value(step.getTime());
+        json.name("lat").value(step.getLat());
+        json.name("lon").value(step.getLon());
+        json.name("walking").value(step.isWalking());
+        json.name("distanceKm").value(step.getDistanceKm());
+        if (step.getMode() != null) json.name("mode").value(step.getMode());
+        json.endObject();
+    }
+
+    /**
+     * Groups consecutive steps into legs. A step with a trip id different from the current leg's
+     * starts a new leg; a leg's distance is the longest walking step it contains.
+     */
+    private static void writeLegs(JsonWriter json, List<PathStep> steps, DataLoader loader) throws IOException {
+        json.beginArray();
+        for (int start = 0, end; start < steps.size(); start = end) {
+            end = legEnd(steps, start);
+            writeLeg(json, steps, start, end, loader);
+        }
+        json.endArray();
+    }
+
+    /** Index just past the leg that starts at {@code start}. */
+    private static int legEnd(List<PathStep> steps, int start) {
+        String tripId = steps.get(start).getTripID();
+        int end = start + 1;
+        while (end < steps.size()) {
+            String next = steps.get(end).getTripID();
+            if (next != null && !next.equals(tripId)) break;
+            end++;
+        }
+        return end;
+    }
+
+    /** Longest walking step in a leg, counting the first step only if it is itself a walk. */
+    private static double legDistanceKm(List<PathStep> steps, int from, int to) {
+        PathStep first = steps.get(from);
+        double distanceKm = first.isWalking() ? first.getDistanceKm() : 0.0;
+        for (int i = from + 1; i < to; i++) {
+            PathStep step = steps.get(i);
+            if (step.isWalking() && step.getDistanceKm() > distanceKm) {
+                distanceKm = step.getDistanceKm();
+            }
+        }
+        return distanceKm;
+    }
+
+    private static void writeLeg(JsonWriter json, List<PathStep> steps, int from, int to, DataLoader loader)
+            throws IOException {
+        PathStep first = steps.get(from);
+        PathStep last = steps.get(to - 1);
+        String tripId = first.getTripID();
+        double distanceKm = legDistanceKm(steps, from, to);
+
+        json.beginObject();
+        if (tripId != null) json.name("tripId").value(tripId);
+        json.name("mode").value(resolveMode(first));
+        String operator = deriveOperator(tripId, loader);
+        if (operator != null) json.name("operator").value(operator);
+        json.name("line").value(deriveLine(tripId));
+        json.name("startTime").value(first.getTime());
+        json.name("startStop").value(first.getStopName());
+        json.name("startCoords");
+        writeCoords(json, first, loader);
+        json.name("distanceKm").value(distanceKm);
+        json.name("endTime").value(last.getTime());
+        json.name("endStop").value(last.getStopName());
+        json.name("endCoords");
+        writeCoords(json, last, loader);
+        Integer duration = minutesBetween(first.getTime(), last.getTime());
+        if (duration != null) {
+            json.name("durationMinutes").value(duration);
+        }
+        json.name("stops").beginArray();
+        for (int i = from; i < to; i++) {
+            PathStep step = steps.get(i);
+            json.beginObject();
+            json.name("time").value(step.getTime());
+            json.name("stop").value(step.getStopName());
+            json.name("coords");
+            writeCoords(json, step, loader);
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    /** Latitude/longitude for a step from cached stop details, or {} when unknown. */
+    private static void writeCoords(JsonWriter json, PathStep step, DataLoader loader) throws IOException {
+        json.beginObject();
+        double[] coords = coordsFor(step, loader);
+        if (coords != null) {
+            json.name("lat").value(coords[0]);
+            json.name("lon").value(coords[1]);
+        }
+        json.endObject();
+    }
+
+    /** Stop coordinates for a step, falling back to the step's own point; null when unknown. */
+    private static double[] coordsFor(PathStep step, DataLoader loader) {
+        StopLocation loc = loader.stopDetails.get(step.getStopID());
+        if (loc != null) {
+            return new double[]{loc.getLat(), loc.getLon()};
+        }
+        double lat = step.getLat();
+        double lon = step.getLon();
+        boolean usable = Double.isFinite(lat) && Double.isFinite(lon)
+                && !(Math.abs(lat) < 1e-9 && Math.abs(lon) < 1e-9);
+        return usable ? new double[]{lat, lon} : null;
+    }
+
+    // ============= Compact format =============
+
+    /**
+     * Writes the opt-in compact /journey body: each stop appears once in a per-route stop table,
+     * legs reference it by index, times are minutes after midnight and leg geometry is an
+     * encoded polyline (precision 1e-5). The raw step list is omitted since legs carry it all.
+     */
+    public static void writeCompactJourney(Writer out, List<PathStep> path, String dayType, boolean useCSA,
+                                           DataLoader loader) throws IOException {
+        writeCompactJourney(out, path, dayType, useCSA, loader, null);
+    }
+
+    /** As above, appending a "debug" member with the search statistics when {@code stats} is set. */
+    public static void writeCompactJourney(Writer out, List<PathStep> path, String dayType, boolean useCSA,
+                                           DataLoader loader, SearchStats stats) throws IOException {
+        JsonWriter json = newWriter(out);
+        json.beginObject();
+        json.name("format").value("compact");
+        json.name("routes").beginArray();
+        if (path == null || path.isEmpty()) {
+            json.endArray();
+            json.name("message").value("No route found");
+            writeDebug(json, stats);
+            json.endObject();
+            json.flush();
+            return;
+        }
+
+        Map<Integer, Integer> tableIndex = new LinkedHashMap<>();
+        List<PathStep> table = new ArrayList<>();
+        for (PathStep step : path) {
+            if (tableIndex.putIfAbsent(step.getStopID(), table.size()) == null) {
+                table.add(step);
+            }
+        }
+
+        json.beginObject();
+        json.name("summary");
+        writeCompactSummary(json, path, dayType, useCSA);
+        json.name("stops").beginArray();
+        for (PathStep step : table) {
+            json.beginObject();
+            json.name("id").value(step.getStopID());
+            json.name("name").value(step.getStopName());
+            double[] coords = coordsFor(step, loader);
+            if (coords != null) {
+                // Six decimals is ~0.1 m, well below stop-position accuracy.
+                json.name("lat").value(Math.round(coords[0] * 1e6) / 1e6);
+                json.name("lon").value(Math.round(coords[1] * 1e6) / 1e6);
+            }
+            json.endObject();
+        }
+        json.endArray();
+        json.name("legs").beginArray();
+        for (int start = 0, end; start < path.size(); start = end) {
+            end = legEnd(path, start);
+            writeCompactLeg(json, path, start, end, tableIndex, loader);
+        }
+        json.endArray();
+        json.endObject();
+
+        json.endArray();
+        writeDebug(json, stats);
+        json.endObject();
+        json.flush();
+    }
+
+    private static void writeCompactSummary(JsonWriter json, List<PathStep> steps, String dayType, boolean useCSA)
+            throws IOException {
+        int start = timeToMinutes(steps.get(0).getTime());
+        int end = timeToMinutes(steps.get(steps.size() - 1).getTime());
+        json.beginObject();
+        json.name("start").value(start);
+        json.name("end").value(end);
+        json.name("durationMinutes").value(end - start);
+        json.name("transfers").value(countTransfers(steps));
+        if (dayType != null && !dayType.isBlank()) {
+            json.name("dayType").value(dayType);
+        }
+        json.name("algorithm").value(useCSA ? "CSA" : "RAPTOR");
+        json.endObject();
+    }
+
+    private static void writeCompactLeg(JsonWriter json, List<PathStep> steps, int from, int to,
+                                        Map<Integer, Integer> tableIndex, DataLoader loader) throws IOException {
+        PathStep first = steps.get(from);
+        String tripId = first.getTripID();
+
+        json.beginObject();
+        if (tripId != null) json.name("tripId").value(tripId);
+        json.name("mode").value(resolveMode(first));
+        String operator = deriveOperator(tripId, loader);
+        if (operator != null) json.name("operator").value(operator);
+        json.name("line").value(deriveLine(tripId));
+        json.name("distanceKm").value(legDistanceKm(steps, from, to));
+
+        json.name("stops").beginArray();
+        for (int i = from; i < to; i++) {
+            json.value(tableIndex.get(steps.get(i).getStopID()));
+        }
+        json.endArray();
+        json.name("times").beginArray();
+        for (int i = from; i < to; i++) {
+            json.value(timeToMinutes(steps.get(i).getTime()));
+        }
+        json.endArray();
+
+        StringBuilder polyline = new StringBuilder();
+        long prevLat = 0;
+        long prevLon = 0;
+        for (int i = from; i < to; i++) {
+            double[] coords = coordsFor(steps.get(i), loader);
+            if (coords == null) continue;
+            long lat = Math.round(coords[0] * 1e5);
+            long lon = Math.round(coords[1] * 1e5);
+            encodeSigned(lat - prevLat, polyline);
+            encodeSigned(lon - prevLon, polyline);
+            prevLat = lat;
+            prevLon = lon;
+        }
+        json.name("polyline").value(polyline.toString());
+        json.endObject();
+    }
+
+    /** Appends one value in the Encoded Polyline Algorithm Format. */
+    private static void encodeSigned(long value, StringBuilder out) {
+        long shifted = value < 0 ? ~(value << 1) : value << 1;
+        while (shifted >= 0x20) {
+            out.append((char) ((0x20 | (shifted & 0x1f)) + 63));
+            shifted >>= 5;
+        }
+        out.append((char) (shifted + 63));
+    }
+
+    /** Returns the minute difference between two HH:MM timestamps if valid. */
+    private static Integer minutesBetween(String start, String end) {
+        int startMin = timeToMinutes(start);
+        int endMin = timeToMinutes(end);
+        if (endMin < startMin) return null;
+        return endMin - startMin;
+    }
+
+    /** Determines the human-readable mode label for a path step. */
+    private static String resolveMode(PathStep step) {
+        if (step.isWalking()) return "WALK";
+        String mode = step.getMode();
+        if (mode == null) return "UNKNOWN";
+        mode = mode.toUpperCase(Locale.ROOT);
+        if (mode.equals("BUS") || mode.equals("TRAIN")) return mode;
+        return "UNKNOWN";
+    }
+
+    static String deriveLine(String tripId) {
+        if (tripId == null) return "";
+        if (tripId.startsWith("BUS_")) {
+            String[] parts = tripId.split("_");
+            if (parts.length >= 2) return parts[1];
+        }
+        if (tripId.startsWith("TRAIN")) {
+            return "TRAIN";
+        }
+        return tripId;
+    }
+
+    /**
+     * Attempts to resolve a human-friendly operator label for the given trip.
+     * Prefers loader-provided bus operators and falls back to Metrorail for trains.
+     */
+    static String deriveOperator(String tripId, DataLoader loader) {
+        if (tripId == null || loader == null) return null;
+        Trip trip = loader.trips.get(tripId);
+        if (trip == null) return null;
+        String operator = loader.getRouteOperator(trip.getRoute());
+        if (operator != null && !operator.isBlank()) {
+            return operator;
+        }
+        String mode = trip.getMode();
+        if (mode != null && mode.equalsIgnoreCase("TRAIN")) {
+            return "METRORAIL";
+        }
+        return null;
+    }
+
+    private static boolean isWalkTrip(String tripId) {
+        return tripId != null && tripId.equalsIgnoreCase("WALK");
+    }
+
+    private static int timeToMinutes(String hhmm) {
+        try {
+            String[] p = hhmm.split(":");
+            return Integer.parseInt(p[0]) * 60 + Integer.parseInt(p[1]);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
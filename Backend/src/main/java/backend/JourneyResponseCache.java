@@ -0,0 +1,106 @@
+package backend;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of serialized /journey responses, bounded by total byte size. Every entry is tagged
+ * with the generation of the {@link TransitSystem} that produced it; a lookup for a newer
+ * generation drops all older entries, so a schedule reload invalidates the cache as soon as the
+ * new system is published.
+ */
+public final class JourneyResponseCache {
+    /** Rough per-entry bookkeeping cost on top of the key and body bytes. */
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long currentBytes;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public JourneyResponseCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /** Returns the cached body for the key if it was produced by the given generation. */
+    public synchronized String get(String key, long systemGeneration) {
+        advanceTo(systemGeneration);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.generation != systemGeneration) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new String(entry.body, StandardCharsets.UTF_8);
+    }
+
+    /** Stores a body, evicting least recently used entries until the cache fits its budget. */
+    public synchronized void put(String key, long systemGeneration, String body) {
+        advanceTo(systemGeneration);
+        if (systemGeneration != generation) return;
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        long size = sizeOf(key, bytes);
+        if (size > maxBytes) return;
+
+        Entry previous = entries.remove(key);
+        if (previous != null) {
+            currentBytes -= previous.size;
+        }
+        entries.put(key, new Entry(bytes, systemGeneration, size));
+        currentBytes += size;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().size;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /** Snapshot of the cache counters for monitoring. */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("generation", generation);
+        stats.put("entries", entries.size());
+        stats.put("bytes", currentBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+
+    /** Drops every entry from older generations once a newer system is seen. */
+    private void advanceTo(long systemGeneration) {
+        if (systemGeneration > generation) {
+            generation = systemGeneration;
+            entries.clear();
+            currentBytes = 0;
+        }
+    }
+
+    private static long sizeOf(String key, byte[] body) {
+        return (long) key.length() * 2 + body.length + ENTRY_OVERHEAD_BYTES;
+    }
+
+    private static final class Entry {
+        final byte[] body;
+        final long generation;
+        final long size;
+
+        Entry(byte[] body, long generation, long size) {
+            this.body = body;
+            this.generation = generation;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package backend;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Process-wide request, search, load and GC metrics rendered in the Prometheus text format.
+ * Recording only touches LongAdders (plus a map lookup for labelled series), so it adds no
+ * lock contention on the query path; the cumulative bucket counts are summed at scrape time.
+ */
+public final class Metrics {
+    /** Upper bounds, in seconds, of the latency histogram buckets. */
+    private static final double[] LATENCY_BUCKETS = {
+            0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+
+    private static final ConcurrentMap<String, Histogram> REQUEST_LATENCY = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongAdder> RESPONSES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> SEARCH_LATENCY = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongAdder> QUERY_OUTCOMES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongAdder> SEARCH_WORK = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongAdder> LOADS = new ConcurrentHashMap<>();
+    private static final Histogram LOAD_DURATION = new Histogram();
+    private static final ConcurrentMap<String, Histogram> GC_PAUSES = new ConcurrentHashMap<>();
+
+    static {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener((notification, handback) -> {
+                    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+                    GarbageCollectionNotificationInfo info =
+                            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    histogram(GC_PAUSES, info.getGcName())
+                            .observeNanos(TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()));
+                }, null, null);
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /** Records one HTTP request to {@code route} that finished with {@code status}. */
+    public static void observeRequest(String route, int status, long nanos) {
+        histogram(REQUEST_LATENCY, route).observeNanos(nanos);
+        counter(RESPONSES, labels("route", route, "status", String.valueOf(status))).increment();
+    }
+
+    /** Records the engine time of one search by algorithm ("RAPTOR" or "CSA"). */
+    public static void observeSearch(String algorithm, long nanos) {
+        histogram(SEARCH_LATENCY, algorithm).observeNanos(nanos);
+    }
+
+    /** Adds one search's work counters to the per-algorithm totals. */
+    public static void recordSearchStats(SearchStats stats) {
+        String algorithm = stats.getAlgorithm() == null ? "UNKNOWN" : stats.getAlgorithm();
+        addWork(algorithm, "rounds", stats.getRounds());
+        addWork(algorithm, "routes_scanned", stats.getRoutesScanned());
+        addWork(algorithm, "trips_inspected", stats.getTripsInspected());
+        addWork(algorithm, "labels_improved", stats.getLabelsImproved());
+        addWork(algorithm, "footpath_relaxations", stats.getFootpathRelaxations());
+        addWork(algorithm, "connections_scanned", stats.getConnectionsScanned());
+        counter(SEARCH_WORK, labels("algorithm", algorithm, "kind", "searches")).increment();
+    }
+
+    private static void addWork(String algorithm, String kind, long amount) {
+        if (amount > 0) {
+            counter(SEARCH_WORK, labels("algorithm", algorithm, "kind", kind)).add(amount);
+        }
+    }
+
+    /** Counts a journey query answered by {@code route} with the given outcome. */
+    public static void countQuery(String route, String outcome) {
+        counter(QUERY_OUTCOMES, labels("route", route, "outcome", outcome)).increment();
+    }
+
+    /** Records one transit data load (startup or reload). */
+    public static void observeLoad(boolean succeeded, long nanos) {
+        LOAD_DURATION.observeNanos(nanos);
+        counter(LOADS, labels("result", succeeded ? "success" : "failure")).increment();
+    }
+
+    /** Appends every recorded series to {@code out}. */
+    public static void render(StringBuilder out) {
+        renderHistograms(out, "journey_http_request_duration_seconds",
+                "Time spent handling query routes.", "route", REQUEST_LATENCY);
+        renderCounters(out, "journey_http_responses_total", "Query route responses by status code.", RESPONSES);
+        renderCounters(out, "journey_queries_total", "Journey queries by outcome.", QUERY_OUTCOMES);
+        renderHistograms(out, "journey_search_duration_seconds",
+                "Engine time per search by algorithm.", "algorithm", SEARCH_LATENCY);
+        renderCounters(out, "journey_search_work_total",
+                "Engine work summed over searches that collected stats.", SEARCH_WORK);
+        renderCounters(out, "journey_data_loads_total", "Transit data loads by result.", LOADS);
+        header(out, "journey_data_load_duration_seconds", "Time to build a TransitSystem.", "histogram");
+        LOAD_DURATION.render(out, "journey_data_load_duration_seconds", "");
+        renderHistograms(out, "jvm_gc_pause_seconds", "Garbage collection pauses by collector.", "gc", GC_PAUSES);
+    }
+
+    /** Appends a single unlabelled gauge. */
+    public static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    /** Appends a single unlabelled counter. */
+    public static void counter(StringBuilder out, String name, String help, double value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void renderHistograms(StringBuilder out, String name, String help, String label,
+                                         Map<String, Histogram> series) {
+        header(out, name, help, "histogram");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(series).entrySet()) {
+            entry.getValue().render(out, name, labels(label, entry.getKey()));
+        }
+    }
+
+    private static void renderCounters(StringBuilder out, String name, String help, Map<String, LongAdder> series) {
+        header(out, name, help, "counter");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(series).entrySet()) {
+            out.append(name).append('{').append(entry.getKey()).append("} ").append(entry.getValue().sum()).append('\n');
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static Histogram histogram(ConcurrentMap<String, Histogram> series, String key) {
+        Histogram histogram = series.get(key);
+        return histogram != null ? histogram : series.computeIfAbsent(key, k -> new Histogram());
+    }
+
+    private static LongAdder counter(ConcurrentMap<String, LongAdder> series, String key) {
+        LongAdder counter = series.get(key);
+        return counter != null ? counter : series.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    /** Renders alternating label names and values as {@code a="x",b="y"}. */
+    private static String labels(String... pairs) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < pairs.length; i += 2) {
+            if (sb.length() > 0) sb.append(',');
+            String value = pairs[i + 1] == null ? "" : pairs[i + 1];
+            sb.append(pairs[i]).append("=\"")
+                    .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return String.valueOf((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /** Fixed-bucket latency histogram; each bucket counts only its own range until rendered. */
+    private static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void observeNanos(long nanos) {
+            double seconds = nanos / 1e9;
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && seconds > LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sumNanos.add(nanos);
+        }
+
+        void render(StringBuilder out, String name, String labels) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String bound = i < LATENCY_BUCKETS.length ? format(LATENCY_BUCKETS[i]) : "+Inf";
+                out.append(name).append("_bucket{").append(prefix).append("le=\"").append(bound).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+            out.append(name).append("_sum").append(suffix).append(' ').append(format(sumNanos.sum() / 1e9)).append('\n');
+            out.append(name).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package backend;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Shares one computation between identical requests that are in flight at the same time.
+ * The first caller for a key computes the value; callers arriving before it finishes wait
+ * for that result (or exception) instead of recomputing, for no longer than their own budget
+ * allows. Nothing is cached afterwards.
+ */
+public final class QueryCoalescer<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder computed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Returns the value for {@code key}, computing it only if no identical call is running.
+     * A caller that waits on another's computation gives up after {@code maxWaitNanos} with a
+     * {@link QueryTimeoutException}; the computation itself carries on for its own caller.
+     */
+    public V execute(K key, long maxWaitNanos, Supplier<V> computation) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.increment();
+            return await(leader, maxWaitNanos);
+        }
+
+        computed.increment();
+        try {
+            V value = computation.get();
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /** Number of computations actually run. */
+    public long getComputedCount() {
+        return computed.sum();
+    }
+
+    /** Number of callers that waited on another caller's computation. */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    private static <V> V await(CompletableFuture<V> leader, long maxWaitNanos) {
+        try {
+            return leader.get(Math.max(0L, maxWaitNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new QueryTimeoutException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryTimeoutException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            if (cause instanceof Error error) throw error;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
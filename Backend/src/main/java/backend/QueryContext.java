@@ -0,0 +1,125 @@
+package backend;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-query execution state passed down to the engines. Its deadline is checked cooperatively:
+ * RAPTOR once per round and every few marked stops, CSA every few thousand connections. An
+ * engine that finds it expired stops scanning and returns the labels it has so far, and the
+ * context remembers that the answer is only the best found before the deadline. A context can
+ * also carry {@link SearchStats}; when it does not, the engines skip all counting. A summary
+ * context carries stats for the phase times and endpoint stops only, so the engines' per-route
+ * and per-trip counters stay off.
+ */
+public final class QueryContext {
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final long deadlineNanos;
+    private final SearchStats stats;
+    private final boolean countsWork;
+    private final boolean warmUp;
+    private volatile boolean truncated;
+
+    private QueryContext(long deadlineNanos, SearchStats stats, boolean countsWork, boolean warmUp) {
+        this.deadlineNanos = deadlineNanos;
+        this.stats = stats;
+        this.countsWork = countsWork;
+        this.warmUp = warmUp;
+    }
+
+    /** A context that never expires. */
+    public static QueryContext unbounded() {
+        return new QueryContext(NO_DEADLINE, null, false, false);
+    }
+
+    /** A context expiring {@code timeoutMillis} from now; zero or less means no deadline. */
+    public static QueryContext withTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            return unbounded();
+        }
+        return new QueryContext(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), null, false, false);
+    }
+
+    /** A fresh context with the same deadline, for another search sharing this budget. */
+    public QueryContext withSameDeadline() {
+        return new QueryContext(deadlineNanos, null, false, warmUp);
+    }
+
+    /**
+     * A fresh context ending {@code budgetNanos} from now, or at this context's deadline if that
+     * comes first.
+     */
+    public QueryContext withBudget(long budgetNanos) {
+        if (deadlineNanos == NO_DEADLINE) {
+            return new QueryContext(NO_DEADLINE, null, false, warmUp);
+        }
+        long remaining = remainingNanos();
+        return new QueryContext(System.nanoTime() + Math.min(remaining, Math.max(0L, budgetNanos)), null, false, warmUp);
+    }
+
+    /** A context with the same deadline that also collects search statistics. */
+    public QueryContext withStats() {
+        return new QueryContext(deadlineNanos, new SearchStats(), true, warmUp);
+    }
+
+    /**
+     * A context with the same deadline that records the engine, endpoint stops and phase times,
+     * but not the engines' work counters.
+     */
+    public QueryContext withSummary() {
+        return new QueryContext(deadlineNanos, new SearchStats(), false, warmUp);
+    }
+
+    /**
+     * The same context for a warm-up query, which searches like any other but is left out of
+     * the query metrics and flight recorder events.
+     */
+    public QueryContext forWarmUp() {
+        return new QueryContext(deadlineNanos, stats, countsWork, true);
+    }
+
+    /** True for warm-up queries run before a system is published. */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /** Statistics being collected for this query, or null when collection is off. */
+    public SearchStats stats() {
+        return stats;
+    }
+
+    /** Statistics the engines should count their work into, or null when counting is off. */
+    public SearchStats workCounters() {
+        return countsWork ? stats : null;
+    }
+
+    /**
+     * Returns true once the deadline has passed. The engine calling this is expected to stop,
+     * so the context is marked truncated from then on.
+     */
+    public boolean deadlineReached() {
+        if (truncated) return true;
+        if (deadlineNanos == NO_DEADLINE || System.nanoTime() - deadlineNanos < 0) return false;
+        truncated = true;
+        return true;
+    }
+
+    /** Nanoseconds left before the deadline, zero once it has passed; Long.MAX_VALUE without one. */
+    public long remainingNanos() {
+        if (deadlineNanos == NO_DEADLINE) return Long.MAX_VALUE;
+        return Math.max(0L, deadlineNanos - System.nanoTime());
+    }
+
+    /** True when a search under this context stopped at the deadline. */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Records that a shared search this query waited on was cut short. Marking a running
+     * search's own context also stops it at its next deadline check.
+     */
+    void markTruncated() {
+        truncated = true;
+    }
+}
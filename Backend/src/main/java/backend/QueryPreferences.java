@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Locale;
 import java.util.Set;
+import java.util.TreeSet;
 
 public final class QueryPreferences {
     private static final Set<String> DEFAULT_TRANSIT_MODES = Set.of("BUS", "TRAIN");
@@ -144,4 +145,11 @@ public final class QueryPreferences {
     public boolean isValid() {
         return valid;
     }
+
+    /** Stable text form of every field that affects planning, for grouping and cache keys. */
+    public String fingerprint() {
+        String modes = allowedModes == null ? "*" : String.join("+", new TreeSet<>(allowedModes));
+        return modes + "|" + maxConsecutiveWalkKm + "|" + maxCumulativeWalkKm + "|" + maxSingleWalkKm
+                + "|" + walkingAllowed + "|" + preferenceSpecified + "|" + valid;
+    }
 }
@@ -0,0 +1,12 @@
+package backend;
+
+/**
+ * Raised when a query reaches its deadline before finding any journey.
+ */
+public class QueryTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public QueryTimeoutException() {
+        super("Query exceeded its time budget");
+    }
+}
@@ -3,6 +3,8 @@ package backend;
 import java.util.*;
 
 public class Raptor {
+    /** Marked stops scanned between deadline checks within a round. */
+    private static final int DEADLINE_CHECK_STOPS = 16;
 
     /** Parses an HH:MM string into minutes after midnight. */
 
@@ -34,6 +36,59 @@ public class Raptor {
             Map<Integer, List<WalkingEdge>> walkingEdges,
             double maxCumulativeWalkKm,
             double maxConsecutiveWalkKm
+    ) {
+        return runRaptor(
+                List.of(new WalkingEdge(TransitSystem.ORIGIN_STOP_ID, sourceStop, 0, 0.0)),
+                departureTime,
+                stops,
+                trips,
+                stopToRoutes,
+                dayTypeFilter,
+                walkingEdges,
+                maxCumulativeWalkKm,
+                maxConsecutiveWalkKm
+        );
+    }
+
+    /**
+     * Executes RAPTOR from a set of access stops. Each access edge seeds its stop with the
+     * departure time plus the walk offset, so one search covers every nearby boarding option.
+     */
+
+    public static Result runRaptor(
+            List<WalkingEdge> accessEdges,
+            String departureTime,
+            Map<String, Integer> stops,
+            Map<String, Trip> trips,
+            Map<Integer, List<String>> stopToRoutes,
+            String dayTypeFilter,
+            Map<Integer, List<WalkingEdge>> walkingEdges,
+            double maxCumulativeWalkKm,
+            double maxConsecutiveWalkKm
+    ) {
+        return runRaptor(accessEdges, departureTime, stops, trips, stopToRoutes, dayTypeFilter,
+                walkingEdges, maxCumulativeWalkKm, maxConsecutiveWalkKm, null, QueryContext.unbounded());
+    }
+
+    /**
+     * Executes RAPTOR from a set of access stops, reporting the labels to {@code listener}
+     * after every round that improved at least one stop. The context's deadline is checked
+     * before each round and every {@value #DEADLINE_CHECK_STOPS} marked stops; once it passes,
+     * the labels reached so far are returned.
+     */
+
+    public static Result runRaptor(
+            List<WalkingEdge> accessEdges,
+            String departureTime,
+            Map<String, Integer> stops,
+            Map<String, Trip> trips,
+            Map<Integer, List<String>> stopToRoutes,
+            String dayTypeFilter,
+            Map<Integer, List<WalkingEdge>> walkingEdges,
+            double maxCumulativeWalkKm,
+            double maxConsecutiveWalkKm,
+            RoundListener listener,
+            QueryContext context
     ) {
         final int INF = Integer.MAX_VALUE;
         int numStops = stops.size();
@@ -49,28 +104,44 @@ public class Raptor {
 
         Map<Integer, Predecessor> predecessor = new HashMap<>();
 
-        earliestArrival[sourceStop] = departureMinutes;
-        bestWalkDistance[sourceStop] = 0.0;
-        bestConsecutiveWalk[sourceStop] = 0.0;
-
         int MAX_TRANSFERS = 5;
         Set<Integer> marked = new HashSet<>();
-        marked.add(sourceStop);
 
-        long totalTrips = trips.size();
-        long matchingTrips = trips.values().stream()
-                .filter(t -> t.dayType.equalsIgnoreCase(dayTypeFilter))
-                .count();
-        System.out.println("[DEBUG] Raptor running with dayType=" + dayTypeFilter +
-                " | Matching trips: " + matchingTrips + "/" + totalTrips);
+        for (WalkingEdge access : accessEdges) {
+            int accessStop = access.getToStopId();
+            if (accessStop < 0 || accessStop >= numStops) continue;
+            double accessKm = access.getDistanceKm();
+            if (accessKm > maxCumulativeWalkKm + 1e-6 || accessKm > maxConsecutiveWalkKm + 1e-6) continue;
+
+            int arrival = departureMinutes + access.getDurationMinutes();
+            if (isBetterState(arrival, accessKm, accessKm,
+                    earliestArrival[accessStop], bestWalkDistance[accessStop], bestConsecutiveWalk[accessStop])) {
+                earliestArrival[accessStop] = arrival;
+                bestWalkDistance[accessStop] = accessKm;
+                bestConsecutiveWalk[accessStop] = accessKm;
+                marked.add(accessStop);
+            }
+        }
+
+        SearchStats stats = context.workCounters();
+        if (stats != null) {
+            stats.algorithm = "RAPTOR";
+            stats.labelsImproved += marked.size();
+        }
 
+        int scannedStops = 0;
+        rounds:
         for (int round = 0; round < MAX_TRANSFERS; round++) {
+            if (context.deadlineReached()) break;
+            if (stats != null) stats.rounds++;
             Set<Integer> nextMarked = new HashSet<>();
 
             for (int stop : marked) {
+                if (++scannedStops % DEADLINE_CHECK_STOPS == 0 && context.deadlineReached()) break rounds;
                 List<String> routes = stopToRoutes.getOrDefault(stop, Collections.emptyList());
 
                 for (String routeID : routes) {
+                    if (stats != null) stats.routesScanned++;
                     List<Trip> allRouteTrips = new ArrayList<>();
                     for (Trip t : trips.values()) {
                         if (t.route.equals(routeID)) {
@@ -82,10 +153,6 @@ public class Raptor {
                         }
                     }
 
-                    if (allRouteTrips.isEmpty()) {
-                        System.out.println("[DEBUG] No trips found for route " + routeID + " on " + dayTypeFilter);
-                    }
-
                     allRouteTrips.sort(Comparator.comparingInt(t ->
                             t.times.stream()
                                     .filter(st -> st.stopID == stop)
@@ -93,6 +160,7 @@ public class Raptor {
                                     .findFirst().orElse(INF)));
 
                     for (Trip trip : allRouteTrips) {
+                        if (stats != null) stats.tripsInspected++;
                         List<StopTime> times = trip.times;
                         int stopIdx = -1;
                         for (int i = 0; i < times.size(); i++) {
@@ -107,11 +175,7 @@ public class Raptor {
 
                         int boardTime = timeToMinutes(times.get(stopIdx).time);
 
-                        if (stop == sourceStop) {
-                            if (boardTime < departureMinutes) continue;
-                        } else {
-                            if (boardTime < earliestArrival[stop]) continue;
-                        }
+                        if (boardTime < earliestArrival[stop]) continue;
 
                         if (stopIdx < times.size() - 1) {
                             int nextStopTime = timeToMinutes(times.get(stopIdx + 1).time);
@@ -137,6 +201,7 @@ public class Raptor {
                                 predecessor.put(stopID,
                                         new Predecessor(trip.tripID, stop, arrTime, boardTime, false, 0.0, trip.getMode()));
                                 nextMarked.add(stopID);
+                                if (stats != null) stats.labelsImproved++;
                             }
                         }
                     }
@@ -148,6 +213,7 @@ public class Raptor {
                     if (departAt != INF && !Double.isInfinite(bestWalkDistance[stop])
                             && !Double.isInfinite(bestConsecutiveWalk[stop])) {
                         for (WalkingEdge edge : neighbors) {
+                            if (stats != null) stats.footpathRelaxations++;
                             double cumulativeWalk = bestWalkDistance[stop] + edge.getDistanceKm();
                             if (cumulativeWalk > maxCumulativeWalkKm) continue;
 
@@ -164,6 +230,7 @@ public class Raptor {
                                 predecessor.put(toStopId,
                                         new Predecessor("WALK", stop, arrival, departAt, true, edge.getDistanceKm(), "WALK"));
                                 nextMarked.add(toStopId);
+                                if (stats != null) stats.labelsImproved++;
                             }
                         }
                     }
@@ -171,12 +238,24 @@ public class Raptor {
             }
 
             if (nextMarked.isEmpty()) break;
+            if (listener != null) {
+                listener.roundCompleted(round + 1,
+                        new Result(earliestArrival, bestWalkDistance, bestConsecutiveWalk, predecessor));
+            }
             marked = nextMarked;
         }
 
         return new Result(earliestArrival, bestWalkDistance, bestConsecutiveWalk, predecessor);
     }
 
+    /**
+     * Receives the labels after each RAPTOR round. The result shares the engine's working state,
+     * so it is only valid for the duration of the callback.
+     */
+    public interface RoundListener {
+        void roundCompleted(int round, Result labels);
+    }
+
     /** Checks whether a newly discovered arrival time improves on an existing state. */
 
     private static boolean isBetterState(int newArrival, double newTotalWalk, double newConsecutiveWalk,
@@ -0,0 +1,386 @@
+package backend;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Applies schedule changes and reloads on a single background thread, so admin requests return
+ * at once and never touch the schedule files concurrently. Jobs that queue up while a reload runs
+ * are taken together: their file changes are applied in submission order and one system is built
+ * for all of them. The new system is validated and warmed up before it replaces the published
+ * one, so queries keep running on the previous generation until then. If the build fails for any
+ * reason, or a change fails other than by rejecting itself, every file change of the batch is
+ * reverted.
+ */
+public final class ReloadManager {
+    private static final int KEEP_JOBS = 50;
+
+    private final AtomicReference<TransitSystem> systemRef;
+    private final Consumer<TransitSystem> warmUp;
+    private final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private Thread worker;
+
+    public ReloadManager(AtomicReference<TransitSystem> systemRef, Consumer<TransitSystem> warmUp) {
+        this.systemRef = systemRef;
+        this.warmUp = warmUp;
+    }
+
+    /** Starts the worker. Jobs submitted earlier wait in the queue until then. */
+    public synchronized void start() {
+        if (worker != null) return;
+        worker = new Thread(this::runJobs, "transit-reload");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Queues a change and returns its job, whose progress {@link #job} reports. */
+    public Job submit(String description, Change change) {
+        Job job = new Job(Long.toString(ids.incrementAndGet()), description, change);
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            // Oldest finished jobs go first; queued and running ones stay until they finish.
+            Iterator<Job> oldest = jobs.values().iterator();
+            while (jobs.size() > KEEP_JOBS && oldest.hasNext()) {
+                if (oldest.next().isFinished()) oldest.remove();
+            }
+        }
+        queue.add(job);
+        return job;
+    }
+
+    public Optional<Job> job(String id) {
+        synchronized (jobs) {
+            return Optional.ofNullable(jobs.get(id));
+        }
+    }
+
+    /** Recent jobs, newest first. */
+    public List<Map<String, Object>> describeRecent() {
+        List<Map<String, Object>> recent = new ArrayList<>();
+        synchronized (jobs) {
+            for (Job job : jobs.values()) {
+                recent.add(0, job.describe());
+            }
+        }
+        return recent;
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    /**
+     * Loads a system while recording the load metric and the heap used during the load, for
+     * every way a system gets built.
+     */
+    static TransitSystem measured(Build build) throws IOException {
+        long start = System.nanoTime();
+        HeapFootprint.ReloadSample heap = HeapFootprint.beginReload();
+        boolean loaded = false;
+        try {
+            TransitSystem system = build.run();
+            loaded = true;
+            return system;
+        } finally {
+            Metrics.observeLoad(loaded, System.nanoTime() - start);
+            HeapFootprint.endReload(heap, loaded);
+        }
+    }
+
+    private void runJobs() {
+        while (true) {
+            List<Job> batch = new ArrayList<>();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            try {
+                runBatch(batch);
+            } catch (Throwable t) {
+                System.err.println("[WARN] Reload batch failed unexpectedly: " + t);
+                for (Job job : batch) {
+                    if (!job.isFinished()) job.fail(t.toString());
+                }
+            }
+        }
+    }
+
+    private void runBatch(List<Job> batch) {
+        List<Job> applied = new ArrayList<>();
+        for (Job job : batch) {
+            job.start("applying", batch.size());
+            try {
+                job.change.apply.run();
+                applied.add(job);
+            } catch (IllegalArgumentException | IOException e) {
+                job.fail(e.getMessage());
+                job.change.cleanupQuietly();
+            } catch (Throwable t) {
+                // Anything else leaves the files in an unknown state: undo the whole batch.
+                revert(applied, t);
+                for (Job rest : batch) {
+                    if (!rest.isFinished()) {
+                        rest.fail("Reload failed: " + describe(t));
+                        rest.change.cleanupQuietly();
+                    }
+                }
+                rethrowIfError(t);
+                return;
+            }
+        }
+        if (applied.isEmpty()) return;
+
+        TransitSystem next;
+        String[] mode = {"incremental"};
+        try {
+            applied.forEach(job -> job.phase("loading"));
+            TransitSystem current = systemRef.get();
+            next = measured(() -> {
+                TransitSystem incremental = applyIncrementally(current, applied);
+                if (incremental != null) return incremental;
+                mode[0] = "full";
+                return new TransitSystem();
+            });
+
+            applied.forEach(job -> job.phase("validating"));
+            validate(next);
+
+            applied.forEach(job -> job.phase("warming"));
+            warmUp.accept(next);
+        } catch (Throwable t) {
+            revert(applied, t);
+            rethrowIfError(t);
+            return;
+        }
+
+        systemRef.set(next);
+        for (Job job : applied) {
+            try {
+                job.change.commit.run();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[WARN] Post-reload step failed for " + job.description + ": " + e.getMessage());
+            }
+            job.succeed(next.getGeneration(), mode[0]);
+            job.change.cleanupQuietly();
+        }
+        System.out.println("[DEBUG] Published generation " + next.getGeneration() + " (" + mode[0] + ") for "
+                + applied.size() + " change(s)");
+    }
+
+    /** Reverts the applied changes newest first and fails their jobs with {@code cause}. */
+    private static void revert(List<Job> applied, Throwable cause) {
+        String error = describe(cause);
+        System.err.println("[WARN] Reload failed, reverting " + applied.size() + " change(s): " + error);
+        for (int i = applied.size() - 1; i >= 0; i--) {
+            Job job = applied.get(i);
+            try {
+                job.change.revert.run();
+            } catch (IOException | RuntimeException revertError) {
+                System.err.println("[WARN] Could not revert " + job.description + ": " + revertError.getMessage());
+            }
+            job.fail("Reload failed: " + error);
+            job.change.cleanupQuietly();
+        }
+    }
+
+    private static String describe(Throwable t) {
+        return t.getMessage() != null ? t.getMessage() : t.toString();
+    }
+
+    /** Errors such as OutOfMemoryError still reach the worker once the files are restored. */
+    private static void rethrowIfError(Throwable t) {
+        if (t instanceof Error) throw (Error) t;
+    }
+
+    /**
+     * Applies every change on top of {@code current} when each is a single bus schedule file the
+     * change can be isolated to; null when any of them needs a full reload.
+     */
+    private static TransitSystem applyIncrementally(TransitSystem current, List<Job> applied) throws IOException {
+        TransitSystem next = current;
+        for (Job job : applied) {
+            Change change = job.change;
+            if (next == null || change.file == null || change.operator == null) return null;
+            Optional<TransitSystem> changed = TransitSystem.withBusScheduleChange(next, change.file, change.operator);
+            if (changed.isEmpty()) return null;
+            next = changed.get();
+        }
+        return next;
+    }
+
+    /** Rejects systems that could not answer any query, e.g. after every schedule was removed. */
+    private static void validate(TransitSystem system) {
+        DataLoader loader = system.getLoader();
+        if (loader.stops.isEmpty() || loader.trips.isEmpty()) {
+            throw new IllegalStateException("New transit data has no stops or trips");
+        }
+        if (system.getDepartureIndex().size() == 0) {
+            throw new IllegalStateException("New transit data has no departures");
+        }
+    }
+
+    /** Builds a system. */
+    interface Build {
+        TransitSystem run() throws IOException;
+    }
+
+    /** A file operation of a change. */
+    public interface Step {
+        void run() throws IOException;
+    }
+
+    /**
+     * A change to the schedule files, run on the reload thread: {@code apply} changes the files
+     * (an IllegalArgumentException or IOException rejects just this change, anything else fails
+     * the batch), {@code revert} undoes it if the batch fails, {@code commit} runs once the new system is published, and {@code cleanup}
+     * runs last either way.
+     */
+    public static final class Change {
+        private static final Step NOTHING = () -> { };
+
+        private final Path file;
+        private final String operator;
+        private Step apply = NOTHING;
+        private Step revert = NOTHING;
+        private Step commit = NOTHING;
+        private Step cleanup = NOTHING;
+
+        private Change(Path file, String operator) {
+            this.file = file;
+            this.operator = operator;
+        }
+
+        /** A full reload of every schedule file. */
+        public static Change fullReload() {
+            return new Change(null, null);
+        }
+
+        /**
+         * A change to one schedule file. {@code operator} is the bus operator label, or null for
+         * a train file, which always needs a full reload.
+         */
+        public static Change scheduleFile(Path file, String operator) {
+            return new Change(file, operator);
+        }
+
+        public Change apply(Step step) {
+            this.apply = step;
+            return this;
+        }
+
+        public Change revert(Step step) {
+            this.revert = step;
+            return this;
+        }
+
+        public Change commit(Step step) {
+            this.commit = step;
+            return this;
+        }
+
+        public Change cleanup(Step step) {
+            this.cleanup = step;
+            return this;
+        }
+
+        private void cleanupQuietly() {
+            try {
+                cleanup.run();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[WARN] Reload cleanup failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** One submitted change and its progress. */
+    public static final class Job {
+        private final String id;
+        private final String description;
+        private final Change change;
+        private final Instant submittedAt = Instant.now();
+        private volatile String state = "queued";
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile int batchSize;
+        private volatile String mode;
+        private volatile long generation;
+        private volatile String error;
+
+        private Job(String id, String description, Change change) {
+            this.id = id;
+            this.description = description;
+            this.change = change;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        boolean isFinished() {
+            return finishedAt != null;
+        }
+
+        private void start(String phase, int batchSize) {
+            this.batchSize = batchSize;
+            this.startedAt = Instant.now();
+            this.state = phase;
+        }
+
+        private void phase(String phase) {
+            this.state = phase;
+        }
+
+        private void succeed(long generation, String mode) {
+            this.generation = generation;
+            this.mode = mode;
+            this.finishedAt = Instant.now();
+            this.state = "succeeded";
+        }
+
+        private void fail(String error) {
+            this.error = error;
+            this.finishedAt = Instant.now();
+            this.state = "failed";
+        }
+
+        /** Status for the admin API. */
+        public Map<String, Object> describe() {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("id", id);
+            status.put("description", description);
+            status.put("state", state);
+            status.put("submittedAt", submittedAt.toString());
+            Instant started = startedAt;
+            Instant finished = finishedAt;
+            if (started != null) {
+                status.put("startedAt", started.toString());
+                status.put("batchSize", batchSize);
+            }
+            if (finished != null) {
+                status.put("finishedAt", finished.toString());
+                status.put("durationMillis", Duration.between(started != null ? started : submittedAt, finished).toMillis());
+            }
+            if (mode != null) status.put("mode", mode);
+            if (generation != 0) status.put("generation", generation);
+            if (error != null) status.put("error", error);
+            return status;
+        }
+    }
+}
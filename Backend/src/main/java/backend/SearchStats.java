@@ -0,0 +1,95 @@
+package backend;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Work counters and phase timings for one query, filled in by the engines and
+ * {@link TransitSystem} when the query's {@link QueryContext} asks for them. Not thread-safe:
+ * a context collecting stats must not be shared by parallel searches.
+ */
+public final class SearchStats {
+    String algorithm;
+    int rounds;
+    long routesScanned;
+    long tripsInspected;
+    long labelsImproved;
+    long footpathRelaxations;
+    long connectionsScanned;
+    int[] originStops = new int[0];
+    int[] destinationStops = new int[0];
+    private boolean coalesced;
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+    /** Adds {@code nanos} to the named phase. */
+    void addPhase(String phase, long nanos) {
+        phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * Takes over the stats of the identical query whose search this one shared. A null source
+     * (the sharing query collected nothing) only marks this one as coalesced.
+     */
+    void copyFrom(SearchStats source) {
+        coalesced = true;
+        if (source == null) return;
+        algorithm = source.algorithm;
+        rounds = source.rounds;
+        routesScanned = source.routesScanned;
+        tripsInspected = source.tripsInspected;
+        labelsImproved = source.labelsImproved;
+        footpathRelaxations = source.footpathRelaxations;
+        connectionsScanned = source.connectionsScanned;
+        originStops = source.originStops;
+        destinationStops = source.destinationStops;
+        phaseNanos.putAll(source.phaseNanos);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public long getRoutesScanned() {
+        return routesScanned;
+    }
+
+    public long getTripsInspected() {
+        return tripsInspected;
+    }
+
+    public long getLabelsImproved() {
+        return labelsImproved;
+    }
+
+    public long getFootpathRelaxations() {
+        return footpathRelaxations;
+    }
+
+    public long getConnectionsScanned() {
+        return connectionsScanned;
+    }
+
+    /** Stops the search started from: the named stop, or every stop within walking range. */
+    public int[] getOriginStops() {
+        return originStops;
+    }
+
+    /** Stops the search could finish at. */
+    public int[] getDestinationStops() {
+        return destinationStops;
+    }
+
+    /** True when these stats were copied from an identical query's shared search. */
+    public boolean isCoalesced() {
+        return coalesced;
+    }
+
+    /** Time spent per phase in insertion order, in nanoseconds. */
+    public Map<String, Long> getPhaseNanos() {
+        return phaseNanos;
+    }
+}
@@ -0,0 +1,153 @@
+package backend;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling JSON-lines log of queries slower than a threshold. When the active file passes its
+ * size limit it is renamed to {@code <name>.1} (older files shift up, the oldest is dropped),
+ * so disk use stays bounded. Only slow queries take the lock, and only to append one line.
+ */
+public final class SlowQueryLog {
+    private static final Gson GSON = new Gson();
+    private static final Type ENTRY_TYPE = new TypeToken<Map<String, Object>>() { }.getType();
+
+    private final Path file;
+    private final long thresholdNanos;
+    private final long maxBytes;
+    private final int keepFiles;
+
+    /** A threshold of zero or less disables logging. */
+    public SlowQueryLog(Path file, long thresholdMillis, long maxBytes, int keepFiles) {
+        if (maxBytes <= 0 || keepFiles < 0) {
+            throw new IllegalArgumentException("Slow query log size and file count must be positive");
+        }
+        this.file = file;
+        this.thresholdNanos = thresholdMillis <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.maxBytes = maxBytes;
+        this.keepFiles = keepFiles;
+    }
+
+    public boolean isEnabled() {
+        return thresholdNanos != Long.MAX_VALUE;
+    }
+
+    /** True when a query that took {@code elapsedNanos} should be logged. */
+    public boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= thresholdNanos;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /** Appends one entry as a JSON line, rotating first if the file is full. */
+    public synchronized void append(Map<String, Object> entry) {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            if (Files.exists(file) && Files.size(file) >= maxBytes) {
+                rotate();
+            }
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(GSON.toJson(entry));
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not write slow query log " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (keepFiles == 0) {
+            Files.delete(file);
+            return;
+        }
+        Files.deleteIfExists(rotated(keepFiles));
+        for (int i = keepFiles - 1; i >= 1; i--) {
+            Path older = rotated(i);
+            if (Files.exists(older)) {
+                Files.move(older, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    /** Builds the entry for one slow query; {@link SlowQueryReplay} re-runs it from these fields. */
+    public static Map<String, Object> entry(String route,
+                                            Map<String, String> params,
+                                            String dayType,
+                                            long generation,
+                                            long elapsedNanos,
+                                            String outcome,
+                                            int steps,
+                                            QueryContext context) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("timestamp", Instant.now().toString());
+        entry.put("route", route);
+        entry.put("params", params);
+        entry.put("dayType", dayType);
+        entry.put("generation", generation);
+        entry.put("elapsedMs", toMillis(elapsedNanos));
+        entry.put("outcome", outcome);
+        entry.put("steps", steps);
+        entry.put("truncated", context.isTruncated());
+        SearchStats stats = context.stats();
+        if (stats != null) {
+            entry.put("engine", stats.getAlgorithm());
+            entry.put("coalesced", stats.isCoalesced());
+            entry.put("originStops", stats.getOriginStops());
+            entry.put("destinationStops", stats.getDestinationStops());
+            Map<String, Double> phases = new LinkedHashMap<>();
+            for (Map.Entry<String, Long> phase : stats.getPhaseNanos().entrySet()) {
+                phases.put(phase.getKey(), toMillis(phase.getValue()));
+            }
+            entry.put("phaseMillis", phases);
+        }
+        return entry;
+    }
+
+    static double toMillis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    /** Reads every entry of a log file, skipping lines that are not JSON objects. */
+    public static List<Map<String, Object>> read(Path log) throws IOException {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    Map<String, Object> entry = GSON.fromJson(line, ENTRY_TYPE);
+                    if (entry != null) entries.add(entry);
+                } catch (RuntimeException e) {
+                    System.err.println("[WARN] Skipping unreadable slow query entry: " + e.getMessage());
+                }
+            }
+        }
+        return entries;
+    }
+}
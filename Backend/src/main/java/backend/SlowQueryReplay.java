@@ -0,0 +1,134 @@
+package backend;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Re-runs the queries of a slow query log against a dataset and prints how each one's latency
+ * compares with the logged time.
+ *
+ * <pre>java backend.SlowQueryReplay logs/slow-queries.jsonl [dataDir] [repeats]</pre>
+ *
+ * Each query is run {@code repeats} times (default 3) on the logged day type and the best run is
+ * reported, so the first run's JIT warm-up does not count against the dataset.
+ */
+public class SlowQueryReplay {
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: SlowQueryReplay <slow-query-log> [dataDir] [repeats]");
+            System.exit(1);
+        }
+        Path log = Paths.get(args[0]);
+        String dataDir = args.length > 1 ? args[1] : "CapeTownTransitData/";
+        int repeats = args.length > 2 ? Math.max(1, Integer.parseInt(args[2])) : 3;
+
+        try {
+            List<Map<String, Object>> entries = SlowQueryLog.read(log);
+            TransitSystem system = new TransitSystem(dataDir);
+            System.out.println("Replaying " + entries.size() + " slow queries from " + log
+                    + " against " + dataDir + " (generation " + system.getGeneration() + ")");
+            System.out.println(String.format(Locale.ROOT, "%-4s %-8s %-6s %10s %10s %10s  %s",
+                    "#", "day", "engine", "logged ms", "replay ms", "delta ms", "query"));
+
+            double loggedTotal = 0;
+            double replayTotal = 0;
+            int replayed = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                Map<String, Object> entry = entries.get(i);
+                try {
+                    Replay replay = replay(system, entry, repeats);
+                    double logged = number(entry.get("elapsedMs"));
+                    loggedTotal += logged;
+                    replayTotal += replay.bestMillis;
+                    replayed++;
+                    String mismatch = replay.steps == (int) number(entry.get("steps")) ? "" : "  [steps "
+                            + (int) number(entry.get("steps")) + " -> " + replay.steps + "]";
+                    System.out.println(String.format(Locale.ROOT, "%-4d %-8s %-6s %10.2f %10.2f %+10.2f  %s%s",
+                            i + 1, entry.get("dayType"), replay.engine, logged, replay.bestMillis,
+                            replay.bestMillis - logged, describe(entry), mismatch));
+                } catch (RuntimeException e) {
+                    System.out.println(String.format(Locale.ROOT, "%-4d failed: %s  %s", i + 1, e.getMessage(), describe(entry)));
+                }
+            }
+            if (replayed > 0) {
+                System.out.println(String.format(Locale.ROOT, "Mean over %d queries: logged %.2f ms, replay %.2f ms, delta %+.2f ms",
+                        replayed, loggedTotal / replayed, replayTotal / replayed, (replayTotal - loggedTotal) / replayed));
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading slow query log or transit data: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static Replay replay(TransitSystem system, Map<String, Object> entry, int repeats) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> params = (Map<String, Object>) entry.get("params");
+        if (params == null) {
+            throw new IllegalArgumentException("Entry has no params");
+        }
+        // The logged day type stands in for the date so the replay searches the same timetable.
+        String dayType = entry.get("dayType") != null ? entry.get("dayType").toString() : param(params, "date");
+
+        Replay replay = new Replay();
+        replay.bestMillis = Double.MAX_VALUE;
+        for (int run = 0; run < repeats; run++) {
+            QueryContext context = QueryContext.unbounded().withStats();
+            long started = System.nanoTime();
+            List<PathStep> path = execute(system, params, dayType, context);
+            replay.bestMillis = Math.min(replay.bestMillis, SlowQueryLog.toMillis(System.nanoTime() - started));
+            replay.steps = path == null ? 0 : path.size();
+            replay.engine = context.stats().getAlgorithm();
+        }
+        return replay;
+    }
+
+    /**
+     * Runs one logged query: by coordinates when all four are present, otherwise by stop names.
+     * {@code date} may be a date or a day type.
+     */
+    static List<PathStep> execute(TransitSystem system, Map<String, ?> params, String date, QueryContext context) {
+        QueryPreferences preferences = QueryPreferences.fromRawInputs(
+                param(params, "modes"),
+                param(params, "maxWalkMeters"),
+                TransitSystem.getDefaultMaxConsecutiveWalkKm(),
+                TransitSystem.getDefaultMaxCumulativeWalkKm()
+        );
+        if (!preferences.isValid()) {
+            throw new IllegalArgumentException("Invalid transport preference configuration");
+        }
+        String time = param(params, "time");
+        boolean hasCoordinates = param(params, "fromLat") != null && param(params, "fromLng") != null
+                && param(params, "toLat") != null && param(params, "toLng") != null;
+        if (hasCoordinates) {
+            return system.query(Double.parseDouble(param(params, "fromLat")), Double.parseDouble(param(params, "fromLng")),
+                    Double.parseDouble(param(params, "toLat")), Double.parseDouble(param(params, "toLng")),
+                    time, date, preferences, context);
+        }
+        return system.query(param(params, "from"), param(params, "to"), time, date, preferences, context);
+    }
+
+    private static String describe(Map<String, Object> entry) {
+        Object params = entry.get("params");
+        return params == null ? "" : params.toString();
+    }
+
+    private static String param(Map<String, ?> params, String name) {
+        Object value = params.get(name);
+        return value == null ? null : value.toString();
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+
+    private static final class Replay {
+        double bestMillis;
+        int steps;
+        String engine;
+    }
+}
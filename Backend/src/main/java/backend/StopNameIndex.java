@@ -0,0 +1,256 @@
+package backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Load-time index over stop names for ranked lookup and autocomplete. Names are split into
+ * normalized tokens: a prefix trie answers "every query token starts a name token", and a
+ * trigram inverted index catches misspellings, so neither path scans the full stop list.
+ */
+public final class StopNameIndex {
+    private static final int EXACT_SCORE = 1000;
+    private static final int PREFIX_SCORE = 600;
+    private static final int TOKEN_PREFIX_SCORE = 400;
+    private static final int FUZZY_SCORE = 200;
+    /** Minimum Dice similarity over trigrams for a fuzzy match to be reported. */
+    private static final double MIN_TRIGRAM_SIMILARITY = 0.35;
+
+    private final String[] names;
+    private final String[] normalizedNames;
+    private final int[] stopIds;
+    private final int[] trigramCounts;
+    private final Map<String, Integer> exact = new HashMap<>();
+    private final Map<String, int[]> trigrams = new HashMap<>();
+    private final TrieNode root = new TrieNode();
+
+    /** Builds the index from the loader's name to stop id map. */
+    public StopNameIndex(Map<String, Integer> stops) {
+        List<String> sorted = new ArrayList<>(stops.keySet());
+        sorted.sort(Comparator.naturalOrder());
+
+        int count = sorted.size();
+        this.names = new String[count];
+        this.normalizedNames = new String[count];
+        this.stopIds = new int[count];
+        this.trigramCounts = new int[count];
+
+        Map<String, List<Integer>> trigramPostings = new HashMap<>();
+        for (int entry = 0; entry < count; entry++) {
+            String name = sorted.get(entry);
+            String normalized = normalize(name);
+            names[entry] = name;
+            normalizedNames[entry] = normalized;
+            stopIds[entry] = stops.get(name);
+            if (normalized.isEmpty()) continue;
+
+            exact.putIfAbsent(normalized, entry);
+            for (String token : normalized.split(" ")) {
+                insertToken(token, entry);
+            }
+            List<String> grams = trigramsOf(normalized);
+            trigramCounts[entry] = grams.size();
+            for (String gram : grams) {
+                trigramPostings.computeIfAbsent(gram, k -> new ArrayList<>()).add(entry);
+            }
+        }
+        for (Map.Entry<String, List<Integer>> posting : trigramPostings.entrySet()) {
+            trigrams.put(posting.getKey(), toArray(posting.getValue()));
+        }
+        root.seal();
+    }
+
+    /** Number of indexed stop names. */
+    public int size() {
+        return names.length;
+    }
+
+    /** Returns the best-ranked stop id for the name, or null when nothing matches. */
+    public Integer resolve(String query) {
+        List<Match> matches = search(query, 1);
+        return matches.isEmpty() ? null : matches.get(0).getStopId();
+    }
+
+    /**
+     * Ranked matches for a free-text query: exact name, then names starting with the query,
+     * then names whose tokens all start with a query token, then trigram-similar names.
+     */
+    public List<Match> search(String query, int limit) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        Map<Integer, Integer> scores = new HashMap<>();
+        Integer exactEntry = exact.get(normalized);
+        if (exactEntry != null) {
+            scores.put(exactEntry, EXACT_SCORE);
+        }
+
+        for (int entry : tokenPrefixMatches(normalized.split(" "))) {
+            int score = normalizedNames[entry].startsWith(normalized) ? PREFIX_SCORE : TOKEN_PREFIX_SCORE;
+            scores.merge(entry, score, Math::max);
+        }
+
+        if (scores.size() < limit) {
+            addFuzzyMatches(normalized, scores);
+        }
+
+        List<Match> matches = new ArrayList<>(scores.size());
+        for (Map.Entry<Integer, Integer> scored : scores.entrySet()) {
+            int entry = scored.getKey();
+            matches.add(new Match(stopIds[entry], names[entry], scored.getValue()));
+        }
+        matches.sort(Match.ORDER);
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /** Entries where every query token is a prefix of at least one name token. */
+    private int[] tokenPrefixMatches(String[] tokens) {
+        int[][] postings = new int[tokens.length][];
+        for (int i = 0; i < tokens.length; i++) {
+            postings[i] = prefixPostings(tokens[i]);
+            if (postings[i].length == 0) return postings[i];
+        }
+        Arrays.sort(postings, Comparator.comparingInt(p -> p.length));
+
+        int[] result = postings[0];
+        for (int i = 1; i < postings.length && result.length > 0; i++) {
+            result = intersect(result, postings[i]);
+        }
+        return result;
+    }
+
+    private void addFuzzyMatches(String normalized, Map<Integer, Integer> scores) {
+        List<String> grams = trigramsOf(normalized);
+        if (grams.isEmpty()) return;
+
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (String gram : grams) {
+            int[] posting = trigrams.get(gram);
+            if (posting == null) continue;
+            for (int entry : posting) {
+                shared.merge(entry, 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<Integer, Integer> candidate : shared.entrySet()) {
+            int entry = candidate.getKey();
+            double similarity = 2.0 * candidate.getValue() / (grams.size() + trigramCounts[entry]);
+            if (similarity < MIN_TRIGRAM_SIMILARITY) continue;
+            scores.merge(entry, FUZZY_SCORE + (int) Math.round(similarity * 100), Math::max);
+        }
+    }
+
+    private void insertToken(String token, int entry) {
+        TrieNode node = root;
+        for (int i = 0; i < token.length(); i++) {
+            node = node.children.computeIfAbsent(token.charAt(i), c -> new TrieNode());
+            node.add(entry);
+        }
+    }
+
+    private int[] prefixPostings(String token) {
+        TrieNode node = root;
+        for (int i = 0; i < token.length() && node != null; i++) {
+            node = node.children.get(token.charAt(i));
+        }
+        return node == null || node == root ? new int[0] : node.entries;
+    }
+
+    /** Uppercases and collapses everything except letters and digits into single spaces. */
+    static String normalize(String value) {
+        if (value == null) return "";
+        return value.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]+", " ").trim();
+    }
+
+    /** Distinct trigrams of the name padded with boundary markers. */
+    private static List<String> trigramsOf(String normalized) {
+        String padded = "$" + normalized + "$";
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            String gram = padded.substring(i, i + 3);
+            if (!grams.contains(gram)) grams.add(gram);
+        }
+        return grams;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] out = new int[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        return out;
+    }
+
+    /** Trie node holding the sorted entries whose name has a token passing through it. */
+    private static final class TrieNode {
+        private final Map<Character, TrieNode> children = new HashMap<>();
+        private List<Integer> pending = new ArrayList<>();
+        private int[] entries = new int[0];
+
+        void add(int entry) {
+            // Entries are inserted in ascending order, so only the last one can repeat.
+            if (pending.isEmpty() || pending.get(pending.size() - 1) != entry) {
+                pending.add(entry);
+            }
+        }
+
+        void seal() {
+            entries = toArray(pending);
+            pending = null;
+            for (TrieNode child : children.values()) {
+                child.seal();
+            }
+        }
+    }
+
+    /** A ranked stop-name match. */
+    public static final class Match {
+        static final Comparator<Match> ORDER = Comparator
+                .comparingInt((Match m) -> -m.score)
+                .thenComparingInt(m -> m.name.length())
+                .thenComparing(m -> m.name);
+
+        private final int stopId;
+        private final String name;
+        private final int score;
+
+        Match(int stopId, String name, int score) {
+            this.stopId = stopId;
+            this.name = name;
+            this.score = score;
+        }
+
+        public int getStopId() {
+            return stopId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getScore() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform latitude/longitude grid over stop coordinates. Cells are at least {@code cellSizeKm}
+ * wide everywhere in the dataset, so a radius query only has to inspect the rings of cells that
+ * can possibly hold a match instead of every stop.
+ */
+public final class StopSpatialIndex {
+    /** Kilometers per degree of latitude on the sphere used by the haversine helpers. */
+    private static final double KM_PER_DEGREE = Math.toRadians(1.0) * 6371.0;
+    /** Small padding so great-circle vs. grid rounding can never hide a stop at the radius edge. */
+    private static final double CELL_PADDING = 1.001;
+
+    private final double cellSizeKm;
+    private final double cellLatDeg;
+    private final double cellLonDeg;
+    private final Map<Long, StopLocation[]> cells;
+    private final int minRow;
+    private final int maxRow;
+    private final int minCol;
+    private final int maxCol;
+    private final int size;
+
+    /** Builds the grid from stops with valid (non-zero) coordinates. */
+    public StopSpatialIndex(Collection<StopLocation> stops, double cellSizeKm) {
+        if (!(cellSizeKm > 0.0)) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        List<StopLocation> located = new ArrayList<>();
+        double maxAbsLat = 0.0;
+        for (StopLocation stop : stops) {
+            if (stop == null || (stop.getLat() == 0.0 && stop.getLon() == 0.0)) continue;
+            located.add(stop);
+            maxAbsLat = Math.max(maxAbsLat, Math.abs(stop.getLat()));
+        }
+
+        this.cellSizeKm = cellSizeKm;
+        double paddedKm = cellSizeKm * CELL_PADDING;
+        this.cellLatDeg = paddedKm / KM_PER_DEGREE;
+        // Size longitude cells at the widest latitude so they are never narrower than the radius.
+        double cosLat = Math.max(Math.cos(Math.toRadians(Math.min(maxAbsLat, 89.0))), 1e-6);
+        this.cellLonDeg = paddedKm / (KM_PER_DEGREE * cosLat);
+
+        Map<Long, List<StopLocation>> buckets = new HashMap<>();
+        int rowLo = Integer.MAX_VALUE, rowHi = Integer.MIN_VALUE;
+        int colLo = Integer.MAX_VALUE, colHi = Integer.MIN_VALUE;
+        for (StopLocation stop : located) {
+            int row = rowOf(stop.getLat());
+            int col = colOf(stop.getLon());
+            rowLo = Math.min(rowLo, row);
+            rowHi = Math.max(rowHi, row);
+            colLo = Math.min(colLo, col);
+            colHi = Math.max(colHi, col);
+            buckets.computeIfAbsent(cellKey(row, col), k -> new ArrayList<>()).add(stop);
+        }
+
+        this.cells = new HashMap<>(buckets.size() * 2);
+        for (Map.Entry<Long, List<StopLocation>> bucket : buckets.entrySet()) {
+            List<StopLocation> members = bucket.getValue();
+            members.sort(Comparator.comparingInt(StopLocation::getID));
+            cells.put(bucket.getKey(), members.toArray(new StopLocation[0]));
+        }
+        this.minRow = rowLo;
+        this.maxRow = rowHi;
+        this.minCol = colLo;
+        this.maxCol = colHi;
+        this.size = located.size();
+    }
+
+    /** Number of indexed stops. */
+    public int size() {
+        return size;
+    }
+
+    public double getCellSizeKm() {
+        return cellSizeKm;
+    }
+
+    /** Returns all stops within {@code maxDistanceKm} of the point, nearest first (ties by id). */
+    public List<Neighbor> withinRadius(double lat, double lng, double maxDistanceKm) {
+        List<Neighbor> matches = new ArrayList<>();
+        if (size == 0 || maxDistanceKm < 0.0) {
+            return matches;
+        }
+        int rings = (int) Math.ceil(maxDistanceKm / cellSizeKm);
+        int row = rowOf(lat);
+        int col = colOf(lng);
+        for (int r = Math.max(minRow, row - rings); r <= Math.min(maxRow, row + rings); r++) {
+            for (int c = Math.max(minCol, col - rings); c <= Math.min(maxCol, col + rings); c++) {
+                StopLocation[] members = cells.get(cellKey(r, c));
+                if (members == null) continue;
+                for (StopLocation stop : members) {
+                    double distanceKm = haversineDistance(lat, lng, stop.getLat(), stop.getLon());
+                    if (distanceKm <= maxDistanceKm) {
+                        matches.add(new Neighbor(stop, distanceKm));
+                    }
+                }
+            }
+        }
+        matches.sort(Neighbor.ORDER);
+        return matches;
+    }
+
+    /**
+     * Returns up to {@code k} nearest stops within {@code maxDistanceKm}, nearest first (ties by id).
+     * Rings of cells are scanned outwards and the scan stops once no unvisited cell can beat the
+     * current k-th candidate.
+     */
+    public List<Neighbor> nearest(double lat, double lng, int k, double maxDistanceKm) {
+        List<Neighbor> candidates = new ArrayList<>();
+        if (size == 0 || k <= 0 || maxDistanceKm < 0.0) {
+            return candidates;
+        }
+        int row = rowOf(lat);
+        int col = colOf(lng);
+        int maxRings = Math.max(
+                Math.max(Math.abs(row - minRow), Math.abs(maxRow - row)),
+                Math.max(Math.abs(col - minCol), Math.abs(maxCol - col)));
+        int radiusRings = (int) Math.ceil(maxDistanceKm / cellSizeKm);
+        maxRings = Math.min(maxRings, radiusRings);
+
+        for (int ring = 0; ring <= maxRings; ring++) {
+            for (int r = row - ring; r <= row + ring; r++) {
+                for (int c = col - ring; c <= col + ring; c++) {
+                    if (Math.abs(r - row) != ring && Math.abs(c - col) != ring) continue;
+                    StopLocation[] members = cells.get(cellKey(r, c));
+                    if (members == null) continue;
+                    for (StopLocation stop : members) {
+                        double distanceKm = haversineDistance(lat, lng, stop.getLat(), stop.getLon());
+                        if (distanceKm <= maxDistanceKm) {
+                            candidates.add(new Neighbor(stop, distanceKm));
+                        }
+                    }
+                }
+            }
+            if (candidates.size() >= k) {
+                candidates.sort(Neighbor.ORDER);
+                // Anything in ring + 1 or beyond is at least ring * cellSizeKm away.
+                if (candidates.get(k - 1).distanceKm < ring * cellSizeKm) {
+                    break;
+                }
+            }
+        }
+        candidates.sort(Neighbor.ORDER);
+        return candidates.size() > k ? new ArrayList<>(candidates.subList(0, k)) : candidates;
+    }
+
+    /** Occupied cells; each array holds its stops sorted by id. */
+    Collection<StopLocation[]> occupiedCells() {
+        return cells.values();
+    }
+
+    /**
+     * Stops in the 3x3 block of cells around {@code stop}. When the grid was built with the
+     * search radius as its cell size this covers every stop within that radius.
+     */
+    List<StopLocation> neighborhood(StopLocation stop) {
+        List<StopLocation> members = new ArrayList<>();
+        int row = rowOf(stop.getLat());
+        int col = colOf(stop.getLon());
+        for (int r = row - 1; r <= row + 1; r++) {
+            for (int c = col - 1; c <= col + 1; c++) {
+                StopLocation[] cell = cells.get(cellKey(r, c));
+                if (cell != null) {
+                    Collections.addAll(members, cell);
+                }
+            }
+        }
+        return members;
+    }
+
+    private int rowOf(double lat) {
+        return (int) Math.floor(lat / cellLatDeg);
+    }
+
+    private int colOf(double lon) {
+        return (int) Math.floor(lon / cellLonDeg);
+    }
+
+    private static long cellKey(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    /** Computes the great-circle distance between two latitude/longitude points. */
+    private static double haversineDistance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double rLat1 = Math.toRadians(lat1);
+        double rLat2 = Math.toRadians(lat2);
+
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(rLat1) * Math.cos(rLat2)
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return 6371.0 * c;
+    }
+
+    /** A stop paired with its distance from the query point. */
+    public static final class Neighbor {
+        static final Comparator<Neighbor> ORDER = Comparator
+                .comparingDouble((Neighbor n) -> n.distanceKm)
+                .thenComparingInt(n -> n.stop.getID());
+
+        private final StopLocation stop;
+        private final double distanceKm;
+
+        Neighbor(StopLocation stop, double distanceKm) {
+            this.stop = stop;
+            this.distanceKm = distanceKm;
+        }
+
+        public StopLocation getStop() {
+            return stop;
+        }
+
+        public double getDistanceKm() {
+            return distanceKm;
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package backend;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Versioned binary image of a fully loaded {@link DataLoader}: stops with their resolved
+ * coordinates, routes, trips and stop times, walking edges and the coordinate tables used to
+ * place new stops. Loading it skips CSV parsing, the fuzzy coordinate matching and the walking
+ * edge search; the stop and departure indexes are rebuilt from it, which takes milliseconds.
+ *
+ * <p>The header lists every source file with its size and CRC32C, plus the build parameters.
+ * A snapshot is only used when all of them match, so editing, adding or removing any schedule
+ * file falls back to a full load (which then writes a fresh snapshot). Strings are stored once
+ * in a table and referenced by index, and the payload carries its own CRC32C so a damaged file
+ * is rejected rather than half-read. Files are written to a temporary file and moved into place.
+ */
+public final class TimetableSnapshot {
+    private static final int MAGIC = 0x4A505453; // "JPTS"
+    private static final int VERSION = 1;
+    private static final byte TRAIN_TRIP = 1;
+    private static final byte BUS_TRIP = 2;
+
+    private TimetableSnapshot() {
+    }
+
+    /** One input file of a load, identified by its path relative to the data directory. */
+    public static final class Source {
+        final String path;
+        final long size;
+        final long crc;
+
+        Source(String path, long size, long crc) {
+            this.path = path;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Source source)) return false;
+            return path.equals(source.path) && size == source.size && crc == source.crc;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + Long.hashCode(crc);
+        }
+    }
+
+    /** Checksums the given files, sorted by relative path so the list is stable. */
+    public static List<Source> checksum(Path dataDir, List<Path> files) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        byte[] buffer = new byte[64 * 1024];
+        for (Path file : files) {
+            if (!Files.exists(file)) continue;
+            CRC32C crc = new CRC32C();
+            long size = 0;
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+            String relative = dataDir.relativize(file).toString().replace('\\', '/');
+            sources.add(new Source(relative, size, crc.getValue()));
+        }
+        sources.sort((a, b) -> a.path.compareTo(b.path));
+        return sources;
+    }
+
+    /**
+     * Loads the snapshot into {@code loader} if it was built from exactly these sources and
+     * parameters. Returns false, leaving the loader untouched, when the file is missing, stale,
+     * from another format version or corrupt.
+     */
+    public static boolean read(Path file, List<Source> sources, String parameters, DataLoader loader) {
+        if (file == null || !Files.isRegularFile(file)) return false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+                System.out.println("[DEBUG] Timetable snapshot " + file + " has another format; rebuilding");
+                return false;
+            }
+            if (!parameters.equals(readString(in)) || !sources.equals(readSources(in))) {
+                System.out.println("[DEBUG] Timetable snapshot " + file + " is stale; rebuilding");
+                return false;
+            }
+            long expectedCrc = in.getLong();
+            int payloadLength = in.getInt();
+            if (in.remaining() != payloadLength) {
+                System.out.println("[WARN] Timetable snapshot " + file + " is truncated; rebuilding");
+                return false;
+            }
+            ByteBuffer payload = in.slice();
+            CRC32C crc = new CRC32C();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != expectedCrc) {
+                System.out.println("[WARN] Timetable snapshot " + file + " failed its checksum; rebuilding");
+                return false;
+            }
+            decode(payload, loader);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[WARN] Could not read timetable snapshot " + file + ": " + e);
+            return false;
+        }
+    }
+
+    /** Writes the loader's state; failures are logged and leave any previous snapshot in place. */
+    public static void write(Path file, List<Source> sources, String parameters, DataLoader loader) {
+        if (file == null) return;
+        try {
+            byte[] payload = encode(loader);
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    writeString(out, parameters);
+                    out.writeInt(sources.size());
+                    for (Source source : sources) {
+                        writeString(out, source.path);
+                        out.writeLong(source.size);
+                        out.writeLong(source.crc);
+                    }
+                    out.writeLong(crc.getValue());
+                    out.writeInt(payload.length);
+                    out.write(payload);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            System.out.println("[DEBUG] Timetable snapshot written to " + file + " (" + (payload.length / 1024) + " KB)");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[WARN] Could not write timetable snapshot " + file + ": " + e.getMessage());
+        }
+    }
+
+    // ============= Payload =============
+
+    private static byte[] encode(DataLoader loader) throws IOException {
+        StringTable strings = new StringTable();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1 << 20);
+        DataOutputStream out = new DataOutputStream(body);
+
+        out.writeInt(loader.stopCounter());
+        out.writeInt(loader.stopDetails.size());
+        for (StopLocation stop : loader.stopDetails.values()) {
+            out.writeInt(stop.getID());
+            out.writeInt(strings.id(stop.getName()));
+            out.writeDouble(stop.getLat());
+            out.writeDouble(stop.getLon());
+        }
+
+        out.writeInt(loader.routes.size());
+        for (Map.Entry<String, List<Integer>> route : loader.routes.entrySet()) {
+            out.writeInt(strings.id(route.getKey()));
+            writeInts(out, route.getValue());
+        }
+
+        out.writeInt(loader.stopToRoutes.size());
+        for (Map.Entry<Integer, List<String>> entry : loader.stopToRoutes.entrySet()) {
+            out.writeInt(entry.getKey());
+            writeStrings(out, strings, entry.getValue());
+        }
+
+        out.writeInt(loader.trips.size());
+        for (Trip trip : loader.trips.values()) {
+            boolean bus = trip instanceof BusTrip;
+            out.writeByte(bus ? BUS_TRIP : TRAIN_TRIP);
+            out.writeInt(strings.id(trip.tripID));
+            out.writeInt(strings.id(trip.baseTripID));
+            out.writeInt(strings.id(trip.dayType));
+            out.writeInt(strings.id(trip.route));
+            if (bus) {
+                out.writeInt(strings.id(((BusTrip) trip).routeName));
+            }
+            out.writeInt(trip.times.size());
+            for (StopTime time : trip.times) {
+                out.writeInt(time.stopID);
+                out.writeInt(strings.id(time.time));
+            }
+        }
+
+        out.writeInt(loader.walkingEdges.size());
+        for (Map.Entry<Integer, List<WalkingEdge>> entry : loader.walkingEdges.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (WalkingEdge edge : entry.getValue()) {
+                out.writeInt(edge.getToStopId());
+                out.writeInt(edge.getDurationMinutes());
+                out.writeDouble(edge.getDistanceKm());
+            }
+        }
+
+        writeStringMap(out, strings, loader.routeOperators());
+        writeStrings(out, strings, loader.getInvalidRoutes());
+        writeCoordinates(out, strings, loader.stationNameMap());
+        writeCoordinates(out, strings, loader.stationIdMap());
+        writeStrings(out, strings, loader.standaloneStations());
+        out.flush();
+
+        // The string table goes first so the reader can resolve ids in one pass.
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(body.size() + strings.size() * 16);
+        DataOutputStream head = new DataOutputStream(payload);
+        head.writeInt(strings.size());
+        for (String value : strings.values()) {
+            writeString(head, value);
+        }
+        head.flush();
+        body.writeTo(payload);
+        return payload.toByteArray();
+    }
+
+    private static void decode(ByteBuffer in, DataLoader loader) {
+        String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+
+        int stopCounter = in.getInt();
+        int stopCount = in.getInt();
+        Map<String, Integer> stops = new HashMap<>();
+        Map<Integer, StopLocation> stopDetails = new HashMap<>();
+        Map<String, StopLocation> stopNameToDetails = new HashMap<>();
+        for (int i = 0; i < stopCount; i++) {
+            int id = in.getInt();
+            String name = strings[in.getInt()];
+            StopLocation location = new StopLocation(id, name, in.getDouble(), in.getDouble());
+            stops.put(name, id);
+            stopDetails.put(id, location);
+            stopNameToDetails.put(name, location);
+        }
+
+        int routeCount = in.getInt();
+        Map<String, List<Integer>> routes = new HashMap<>();
+        for (int i = 0; i < routeCount; i++) {
+            String route = strings[in.getInt()];
+            routes.put(route, readInts(in));
+        }
+
+        int stopRouteCount = in.getInt();
+        Map<Integer, List<String>> stopToRoutes = new HashMap<>();
+        for (int i = 0; i < stopRouteCount; i++) {
+            int stopId = in.getInt();
+            stopToRoutes.put(stopId, readStrings(in, strings));
+        }
+
+        int tripCount = in.getInt();
+        Map<String, Trip> trips = new HashMap<>();
+        for (int i = 0; i < tripCount; i++) {
+            byte kind = in.get();
+            String tripId = strings[in.getInt()];
+            String baseTripId = strings[in.getInt()];
+            String dayType = strings[in.getInt()];
+            String route = strings[in.getInt()];
+            Trip trip;
+            if (kind == BUS_TRIP) {
+                trip = new BusTrip(tripId, baseTripId, dayType, route, strings[in.getInt()]);
+            } else if (kind == TRAIN_TRIP) {
+                trip = new TrainTrip(tripId, baseTripId, dayType, route);
+            } else {
+                throw new IllegalStateException("Unknown trip kind " + kind);
+            }
+            int timeCount = in.getInt();
+            List<StopTime> times = trip.times;
+            for (int t = 0; t < timeCount; t++) {
+                times.add(new StopTime(in.getInt(), strings[in.getInt()]));
+            }
+            trips.put(tripId, trip);
+        }
+
+        int edgeStopCount = in.getInt();
+        Map<Integer, List<WalkingEdge>> walkingEdges = new HashMap<>();
+        for (int i = 0; i < edgeStopCount; i++) {
+            int from = in.getInt();
+            int count = in.getInt();
+            List<WalkingEdge> edges = new ArrayList<>(count);
+            for (int e = 0; e < count; e++) {
+                edges.add(new WalkingEdge(from, in.getInt(), in.getInt(), in.getDouble()));
+            }
+            walkingEdges.put(from, edges);
+        }
+
+        Map<String, String> routeOperators = readStringMap(in, strings);
+        List<String> invalidRoutes = readStrings(in, strings);
+        Map<String, double[]> stationNames = readCoordinates(in, strings);
+        Map<String, double[]> stationIds = readCoordinates(in, strings);
+        List<String> standalone = readStrings(in, strings);
+        if (in.hasRemaining()) {
+            throw new IllegalStateException(in.remaining() + " unread bytes");
+        }
+
+        // Only publish into the loader once the whole payload has decoded.
+        loader.stops = stops;
+        loader.stopDetails = stopDetails;
+        loader.stopNameToDetails = stopNameToDetails;
+        loader.routes = routes;
+        loader.stopToRoutes = stopToRoutes;
+        loader.trips = trips;
+        loader.walkingEdges = walkingEdges;
+        loader.restoreSnapshotState(stopCounter, routeOperators, invalidRoutes, stationNames, stationIds, standalone);
+    }
+
+    // ============= Encoding helpers =============
+
+    /** Assigns each distinct string an index in first-use order. */
+    private static final class StringTable {
+        private final Map<String, Integer> ids = new LinkedHashMap<>();
+
+        int id(String value) {
+            if (value == null) {
+                throw new IllegalStateException("Snapshot strings must not be null");
+            }
+            return ids.computeIfAbsent(value, v -> ids.size());
+        }
+
+        int size() {
+            return ids.size();
+        }
+
+        Set<String> values() {
+            return ids.keySet();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutputStream out, List<Integer> values) throws IOException {
+        out.writeInt(values.size());
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static List<Integer> readInts(ByteBuffer in) {
+        int count = in.getInt();
+        List<Integer> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.getInt());
+        }
+        return values;
+    }
+
+    private static void writeStrings(DataOutputStream out, StringTable strings, Iterable<String> values) throws IOException {
+        List<String> list = new ArrayList<>();
+        values.forEach(list::add);
+        out.writeInt(list.size());
+        for (String value : list) {
+            out.writeInt(strings.id(value));
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer in, String[] strings) {
+        int count = in.getInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(strings[in.getInt()]);
+        }
+        return values;
+    }
+
+    private static void writeStringMap(DataOutputStream out, StringTable strings, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.writeInt(strings.id(entry.getKey()));
+            out.writeInt(strings.id(entry.getValue()));
+        }
+    }
+
+    private static Map<String, String> readStringMap(ByteBuffer in, String[] strings) {
+        int count = in.getInt();
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(strings[in.getInt()], strings[in.getInt()]);
+        }
+        return map;
+    }
+
+    private static void writeCoordinates(DataOutputStream out, StringTable strings, Map<String, double[]> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, double[]> entry : map.entrySet()) {
+            out.writeInt(strings.id(entry.getKey()));
+            out.writeDouble(entry.getValue()[0]);
+            out.writeDouble(entry.getValue()[1]);
+        }
+    }
+
+    private static Map<String, double[]> readCoordinates(ByteBuffer in, String[] strings) {
+        int count = in.getInt();
+        Map<String, double[]> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(strings[in.getInt()], new double[]{in.getDouble(), in.getDouble()});
+        }
+        return map;
+    }
+
+    private static List<Source> readSources(ByteBuffer in) {
+        int count = in.getInt();
+        List<Source> sources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sources.add(new Source(readString(in), in.getLong(), in.getLong()));
+        }
+        return sources;
+    }
+
+    /** Build parameters that change the compiled network, recorded so a change invalidates the snapshot. */
+    static String parameters(double maxWalkKm) {
+        return String.format(Locale.ROOT, "walk=%.6f", maxWalkKm);
+    }
+}
@@ -1,15 +1,33 @@
 package backend;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 public class TransitSystem {
+    /** Placeholder stop id for the requested origin point in access edges and path steps. */
+    static final int ORIGIN_STOP_ID = -1;
+    /** Placeholder stop id for the requested destination point in egress edges and path steps. */
+    static final int DESTINATION_STOP_ID = -2;
+
+    /** Source of {@link #getGeneration()} values; each constructed system takes the next one. */
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
     private final DataLoader loader;
+    private final long generation = GENERATIONS.incrementAndGet();
+    private final DepartureIndex departureIndex;
+    /** Identical queries running concurrently against this snapshot share one search. */
+    private final QueryCoalescer<String, Outcome> inFlightQueries = new QueryCoalescer<>();
     private static final double MAX_CONSECUTIVE_WALK_KM = 0.8;
     private static final double MAX_CUMULATIVE_WALK_KM = 6.0;
     private static final double MAX_STOP_LOOKUP_DISTANCE_KM = MAX_CONSECUTIVE_WALK_KM;
@@ -18,54 +36,225 @@ public class TransitSystem {
     private static final double EARTH_RADIUS_KM = 6371.0;
 
     public TransitSystem() throws IOException {
+        this("CapeTownTransitData/");
+    }
+
+    /**
+     * Loads every schedule set from {@code dataDir}, e.g. a copied dataset snapshot. When the
+     * compiled timetable snapshot matches the current files it is mapped instead of parsing them.
+     */
+    public TransitSystem(String dataDir) throws IOException {
         loader = new DataLoader();
 
-        String basePath = "CapeTownTransitData/";
+        String basePath = dataDir.endsWith("/") ? dataDir : dataDir + "/";
+        List<Path> trainFiles = csvFiles(Paths.get(basePath + "train-schedules-2014"));
+        List<Path> mycitiFiles = csvFiles(Paths.get(basePath + "myciti-bus-schedules"));
+        List<Path> gaFiles = csvFiles(Paths.get(basePath + "ga-bus-schedules"));
 
-        loader.loadStationCoordinates(basePath + "metrorail-stations.csv");
+        Path snapshotFile = snapshotFile(basePath);
+        List<TimetableSnapshot.Source> sources = null;
+        String parameters = TimetableSnapshot.parameters(MAX_CONSECUTIVE_WALK_KM);
+        boolean restored = false;
+        if (snapshotFile != null) {
+            List<Path> inputs = new ArrayList<>();
+            inputs.add(Paths.get(basePath + "metrorail-stations.csv"));
+            inputs.add(Paths.get(basePath + "myciti-bus-stops.csv"));
+            inputs.add(Paths.get(basePath + "ga-bus-stops.csv"));
+            inputs.addAll(trainFiles);
+            inputs.addAll(mycitiFiles);
+            inputs.addAll(gaFiles);
 
-        Path trainDir = Paths.get(basePath + "train-schedules-2014");
-        if (Files.exists(trainDir)) {
-            try (var stream = Files.list(trainDir)) {
-                List<Path> trainFiles = stream
-                        .filter(p -> p.toString().toLowerCase(Locale.ROOT).endsWith(".csv"))
-                        .sorted()
-                        .toList();
-                for (Path csv : trainFiles) {
-                    loader.buildTrainData(loader.loadCSV(csv.toString()));
-                }
+            JourneyEvents.LoadPhase phase = JourneyEvents.beginLoad("snapshot");
+            sources = TimetableSnapshot.checksum(Paths.get(basePath), inputs);
+            restored = TimetableSnapshot.read(snapshotFile, sources, parameters, loader);
+            JourneyEvents.endLoad(phase, loader, restored ? 1 : 0);
+            if (restored) {
+                System.out.println("[DEBUG] Transit data restored from snapshot " + snapshotFile);
             }
         }
 
-        loader.loadBusStopCoordinates(basePath + "myciti-bus-stops.csv");
-        loader.loadGABusStopCoordinates(basePath + "ga-bus-stops.csv");
+        if (!restored) {
+            loadSources(basePath, trainFiles, mycitiFiles, gaFiles);
+        }
 
-        Path busDir = Paths.get(basePath + "myciti-bus-schedules");
-        if (Files.exists(busDir)) {
-            try (var stream = Files.list(busDir)) {
-                List<Path> busFiles = stream
-                        .filter(p -> p.toString().toLowerCase(Locale.ROOT).endsWith(".csv"))
-                        .toList();
-                for (Path csv : busFiles) {
-                    loader.buildBusData(loader.loadCSV(csv.toString()), csv.getFileName().toString(), "MYCITI");
-                }
+        JourneyEvents.LoadPhase phase = JourneyEvents.beginLoad("stop indexes");
+        loader.buildSpatialIndex();
+        loader.buildStopNameIndex();
+        JourneyEvents.endLoad(phase, loader, 0);
+
+        if (!restored) {
+            phase = JourneyEvents.beginLoad("walking edges");
+            loader.buildWalkingEdges(MAX_CONSECUTIVE_WALK_KM);
+            JourneyEvents.endLoad(phase, loader, 0);
+            if (snapshotFile != null) {
+                TimetableSnapshot.write(snapshotFile, sources, parameters, loader);
             }
         }
 
-        Path gaDir = Paths.get(basePath + "ga-bus-schedules");
-        if (Files.exists(gaDir)) {
-            try (var stream = Files.list(gaDir)) {
-                List<Path> gaFiles = stream
-                        .filter(p -> p.toString().toLowerCase(Locale.ROOT).endsWith(".csv"))
-                        .toList();
-                for (Path csv : gaFiles) {
-                    loader.buildBusData(loader.loadCSV(csv.toString()), csv.getFileName().toString(), "GOLDENARROW");
+        phase = JourneyEvents.beginLoad("departure index");
+        departureIndex = new DepartureIndex(loader);
+        JourneyEvents.endLoad(phase, loader, 0);
+    }
+
+    /** A system over an already populated loader, e.g. one with an incremental change applied. */
+    private TransitSystem(DataLoader loader) {
+        this.loader = loader;
+        JourneyEvents.LoadPhase phase = JourneyEvents.beginLoad("stop indexes");
+        loader.buildSpatialIndex();
+        loader.buildStopNameIndex();
+        JourneyEvents.endLoad(phase, loader, 0);
+
+        phase = JourneyEvents.beginLoad("departure index");
+        departureIndex = new DepartureIndex(loader);
+        JourneyEvents.endLoad(phase, loader, 0);
+    }
+
+    /**
+     * Applies a change to one bus schedule file on top of {@code base} without reloading the
+     * rest: the file's route is replaced by the file's current contents, or removed if the file
+     * no longer exists, and walking edges are computed only for the stops this creates. Returns
+     * empty when the change cannot be isolated to that file (another file or a train line uses
+     * the same route key, or the route was purged), in which case callers reload everything.
+     * {@code base} is not modified and keeps serving queries.
+     */
+    public static Optional<TransitSystem> withBusScheduleChange(TransitSystem base, Path file, String operator)
+            throws IOException {
+        String fileName = file.getFileName().toString();
+        String routeKey = DataLoader.busRouteKey(fileName);
+        if (routeKey == null || !base.loader.isOwnedByBusFile(routeKey, fileName)
+                || sharesRouteKey(file, routeKey)) {
+            return Optional.empty();
+        }
+
+        long started = System.nanoTime();
+        DataLoader loader = base.loader.copyForChange();
+        JourneyEvents.LoadPhase phase = JourneyEvents.beginLoad("schedule change");
+        DataLoader.ParsedSchedule schedule = null;
+        if (Files.exists(file)) {
+            try (CsvReader rows = CsvReader.open(file)) {
+                schedule = loader.parseBusSchedule(rows, fileName, operator);
+            }
+        }
+        List<StopLocation> created = loader.replaceBusSchedule(routeKey, schedule);
+        JourneyEvents.endLoad(phase, loader, 1);
+
+        phase = JourneyEvents.beginLoad("walking edges");
+        loader.addWalkingEdges(created, MAX_CONSECUTIVE_WALK_KM);
+        JourneyEvents.endLoad(phase, loader, 0);
+
+        TransitSystem system = new TransitSystem(loader);
+        System.out.println("[DEBUG] Applied change to " + fileName + " (route " + routeKey + ", "
+                + created.size() + " new stops) in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        return Optional.of(system);
+    }
+
+    /** True when another bus schedule file of the same dataset normalizes to the same route key. */
+    private static boolean sharesRouteKey(Path file, String routeKey) throws IOException {
+        Path dataDir = file.toAbsolutePath().getParent().getParent();
+        for (String folder : List.of("myciti-bus-schedules", "ga-bus-schedules")) {
+            for (Path other : csvFiles(dataDir.resolve(folder))) {
+                if (!other.toAbsolutePath().equals(file.toAbsolutePath())
+                        && routeKey.equals(DataLoader.busRouteKey(other.getFileName().toString()))) {
+                    return true;
                 }
             }
         }
+        return false;
+    }
+
+    /**
+     * Parses the coordinate and schedule CSVs and drops routes whose stops could not be placed.
+     * Schedule files are parsed concurrently; their trips are then merged one file at a time in
+     * list order, so stop and trip ids do not depend on which parse finished first.
+     */
+    private void loadSources(String basePath, List<Path> trainFiles, List<Path> mycitiFiles, List<Path> gaFiles)
+            throws IOException {
+        JourneyEvents.LoadPhase phase = JourneyEvents.beginLoad("parse schedules");
+        List<DataLoader.ParsedSchedule> trainSchedules = new ArrayList<>();
+        List<DataLoader.ParsedSchedule> mycitiSchedules = new ArrayList<>();
+        List<DataLoader.ParsedSchedule> gaSchedules = new ArrayList<>();
+        List<Path> scheduleFiles = new ArrayList<>(trainFiles);
+        scheduleFiles.addAll(mycitiFiles);
+        scheduleFiles.addAll(gaFiles);
+        List<DataLoader.ParsedSchedule> parsed;
+        try {
+            IntStream indexes = IntStream.range(0, scheduleFiles.size());
+            parsed = (DataLoader.PARALLEL_LOAD ? indexes.parallel() : indexes)
+                    .mapToObj(i -> parseSchedule(scheduleFiles.get(i), i < trainFiles.size() ? null
+                            : i < trainFiles.size() + mycitiFiles.size() ? "MYCITI" : "GOLDENARROW"))
+                    .toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (int i = 0; i < parsed.size(); i++) {
+            if (parsed.get(i) == null) continue;
+            (i < trainFiles.size() ? trainSchedules
+                    : i < trainFiles.size() + mycitiFiles.size() ? mycitiSchedules : gaSchedules).add(parsed.get(i));
+        }
+        JourneyEvents.endLoad(phase, loader, scheduleFiles.size());
+
+        phase = JourneyEvents.beginLoad("stations");
+        loader.loadStationCoordinates(basePath + "metrorail-stations.csv");
+        JourneyEvents.endLoad(phase, loader, 1);
+
+        // Train stops are placed using the station table only, as they were before bus stops existed.
+        phase = JourneyEvents.beginLoad("train schedules");
+        loader.mergeSchedules(trainSchedules);
+        JourneyEvents.endLoad(phase, loader, trainFiles.size());
+
+        phase = JourneyEvents.beginLoad("bus stops");
+        loader.loadBusStopCoordinates(basePath + "myciti-bus-stops.csv");
+        loader.loadGABusStopCoordinates(basePath + "ga-bus-stops.csv");
+        JourneyEvents.endLoad(phase, loader, 2);
+
+        phase = JourneyEvents.beginLoad("myciti schedules");
+        loader.mergeSchedules(mycitiSchedules);
+        JourneyEvents.endLoad(phase, loader, mycitiFiles.size());
 
+        phase = JourneyEvents.beginLoad("golden arrow schedules");
+        loader.mergeSchedules(gaSchedules);
+        JourneyEvents.endLoad(phase, loader, gaFiles.size());
+
+        phase = JourneyEvents.beginLoad("purge");
         loader.purgeInvalidRoutes();
-        loader.buildWalkingEdges(MAX_CONSECUTIVE_WALK_KM);
+        JourneyEvents.endLoad(phase, loader, 0);
+    }
+
+    /** Parses one schedule file: a train timetable when {@code operator} is null, else a bus route. */
+    private DataLoader.ParsedSchedule parseSchedule(Path csv, String operator) {
+        try (CsvReader rows = CsvReader.open(csv)) {
+            return operator == null
+                    ? loader.parseTrainSchedule(rows)
+                    : loader.parseBusSchedule(rows, csv.getFileName().toString(), operator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * CSV files directly inside {@code dir} sorted by name, or none if it does not exist. Sorting
+     * keeps the merge order, and so every stop and trip id, independent of the file system.
+     */
+    private static List<Path> csvFiles(Path dir) throws IOException {
+        if (!Files.exists(dir)) return List.of();
+        try (var stream = Files.list(dir)) {
+            return stream
+                    .filter(p -> p.toString().toLowerCase(Locale.ROOT).endsWith(".csv"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Where the compiled timetable of {@code basePath} is cached: TIMETABLE_SNAPSHOT_DIR (default
+     * "snapshots") plus the data directory's name. An empty TIMETABLE_SNAPSHOT_DIR disables it.
+     */
+    private static Path snapshotFile(String basePath) {
+        String dir = System.getProperty("TIMETABLE_SNAPSHOT_DIR", "snapshots");
+        if (dir.isBlank()) return null;
+        Path data = Paths.get(basePath).toAbsolutePath().normalize();
+        String name = data.getFileName() == null ? "transit" : data.getFileName().toString();
+        return Paths.get(dir).resolve(name + ".snap");
     }
 
     /** Returns the underlying DataLoader for direct data inspection. */
@@ -73,6 +262,55 @@ public class TransitSystem {
         return loader;
     }
 
+    /** Returns the per-stop departure board index for the loaded schedules. */
+    public DepartureIndex getDepartureIndex() {
+        return departureIndex;
+    }
+
+    /** Monotonic id of this snapshot; a reload always produces a larger one. */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Normalized cache key for a journey request: named endpoints by resolved stop id, coordinate
+     * endpoints at 6 decimals, the departure minute, the resolved day type and the preferences
+     * fingerprint. Returns null when a stop name cannot be resolved or the time is malformed.
+     */
+    public String journeyCacheKey(JourneyEndpoint origin,
+                                  JourneyEndpoint destination,
+                                  String departureTime,
+                                  String dateStr,
+                                  QueryPreferences preferences) {
+        String from = endpointKey(origin);
+        String to = endpointKey(destination);
+        if (from == null || to == null || departureTime == null) {
+            return null;
+        }
+        int minutes;
+        try {
+            minutes = Raptor.timeToMinutes(departureTime.trim());
+        } catch (RuntimeException e) {
+            return null;
+        }
+        QueryPreferences effective = preferences != null
+                ? preferences
+                : QueryPreferences.baseline(MAX_CONSECUTIVE_WALK_KM, MAX_CUMULATIVE_WALK_KM);
+        return from + "|" + to + "|" + minutes + "|" + resolveDayType(dateStr) + "|" + effective.fingerprint();
+    }
+
+    private String endpointKey(JourneyEndpoint endpoint) {
+        if (endpoint == null) return null;
+        if (endpoint.isCoordinates()) return "@" + endpoint;
+        Integer stopId = loader.findStopByName(endpoint.getStopName());
+        return stopId == null ? null : "#" + stopId;
+    }
+
+    /** Returns the in-flight query coalescer, mainly for its counters. */
+    public QueryCoalescer<String, ?> getQueryCoalescer() {
+        return inFlightQueries;
+    }
+
     /** Exposes the default single-segment walking limit used by planners. */
     public static double getDefaultMaxConsecutiveWalkKm() {
         return MAX_CONSECUTIVE_WALK_KM;
@@ -98,14 +336,41 @@ public class TransitSystem {
                                 String departureTime,
                                 String dateStr,
                                 QueryPreferences preferences) {
+        return query(sourceStopName, targetStopName, departureTime, dateStr, preferences, QueryContext.unbounded());
+    }
+
+    /**
+     * Finds a journey between named stops within the context's deadline. If the search is cut
+     * short the best journey found so far is returned and the context is marked truncated;
+     * {@link QueryTimeoutException} is thrown when none was found in time.
+     */
+    public List<PathStep> query(String sourceStopName,
+                                String targetStopName,
+                                String departureTime,
+                                String dateStr,
+                                QueryPreferences preferences,
+                                QueryContext context) {
+        String key = "N|" + normalizeNameKey(sourceStopName) + "|" + normalizeNameKey(targetStopName);
+        return coalesce(coalescingKey(key, departureTime, dateStr, preferences), context,
+                () -> planBetweenStops(sourceStopName, targetStopName, departureTime, dateStr, preferences, context));
+    }
+
+    private List<PathStep> planBetweenStops(String sourceStopName,
+                                            String targetStopName,
+                                            String departureTime,
+                                            String dateStr,
+                                            QueryPreferences preferences,
+                                            QueryContext context) {
+        long resolveStart = System.nanoTime();
         Integer sourceId = loader.findStopByName(sourceStopName);
         Integer targetId = loader.findStopByName(targetStopName);
+        recordPhase(context, "resolve", resolveStart);
 
         if (sourceId == null || targetId == null) {
             throw new IllegalArgumentException("Invalid stop name(s).");
         }
 
-        return executeQuery(sourceId, targetId, departureTime, dateStr, preferences);
+        return executeQuery(sourceId, targetId, departureTime, dateStr, preferences, context);
     }
 
     /** Finds a journey between geographic coordinates with default walking limits. */
@@ -119,7 +384,11 @@ public class TransitSystem {
         return query(sourceLat, sourceLng, targetLat, targetLng, departureTime, dateStr, baseline);
     }
 
-    /** Finds a journey between coordinates honoring the provided preferences. */
+    /**
+     * Finds a journey between coordinates honoring the provided preferences. Every stop within
+     * walking range of either point is offered to the engine as an access or egress option, so a
+     * single search weighs all nearby boarding and alighting stops.
+     */
     public List<PathStep> query(double sourceLat,
                                 double sourceLng,
                                 double targetLat,
@@ -127,27 +396,421 @@ public class TransitSystem {
                                 String departureTime,
                                 String dateStr,
                                 QueryPreferences preferences) {
+        return query(sourceLat, sourceLng, targetLat, targetLng, departureTime, dateStr, preferences,
+                QueryContext.unbounded());
+    }
+
+    /** Finds a journey between coordinates within the context's deadline, as the stop-name variant does. */
+    public List<PathStep> query(double sourceLat,
+                                double sourceLng,
+                                double targetLat,
+                                double targetLng,
+                                String departureTime,
+                                String dateStr,
+                                QueryPreferences preferences,
+                                QueryContext context) {
+        String key = "C|" + JourneyEndpoint.ofCoordinates(sourceLat, sourceLng)
+                + "|" + JourneyEndpoint.ofCoordinates(targetLat, targetLng);
+        return coalesce(coalescingKey(key, departureTime, dateStr, preferences), context,
+                () -> planBetweenCoordinates(sourceLat, sourceLng, targetLat, targetLng, departureTime, dateStr,
+                        preferences, context));
+    }
+
+    /**
+     * Runs the plan unless an identical query is already running, in which case its result is
+     * shared; a caller sharing a truncated search sees its own context marked truncated too.
+     * A sharing caller waits only until its own deadline, then gets a {@link QueryTimeoutException}.
+     * A caller collecting stats receives a copy of the shared search's stats, flagged as coalesced.
+     */
+    private List<PathStep> coalesce(String key, QueryContext context, Supplier<List<PathStep>> plan) {
+        Outcome outcome = inFlightQueries.execute(key, context.remainingNanos(), () -> {
+            List<PathStep> steps = plan.get();
+            return new Outcome(steps, context.isTruncated(), context.stats());
+        });
+        if (outcome.truncated) {
+            context.markTruncated();
+        }
+        SearchStats stats = context.stats();
+        if (stats != null && outcome.stats != stats) {
+            stats.copyFrom(outcome.stats);
+        }
+        return outcome.steps;
+    }
+
+    private List<PathStep> planBetweenCoordinates(double sourceLat,
+                                                  double sourceLng,
+                                                  double targetLat,
+                                                  double targetLng,
+                                                  String departureTime,
+                                                  String dateStr,
+                                                  QueryPreferences preferences,
+                                                  QueryContext context) {
         QueryPreferences effective = preferences != null
                 ? preferences
                 : QueryPreferences.baseline(MAX_CONSECUTIVE_WALK_KM, MAX_CUMULATIVE_WALK_KM);
 
-        double lookupRadius = effective.allowsWalking()
-                ? Math.min(MAX_STOP_LOOKUP_DISTANCE_KM, Math.max(effective.getMaxConsecutiveWalkKm(), 0.0))
-                : 0.0;
-
-        Integer sourceId = loader.findNearestStop(sourceLat, sourceLng, lookupRadius);
-        Integer targetId = loader.findNearestStop(targetLat, targetLng, lookupRadius);
+        long accessStart = System.nanoTime();
+        List<WalkingEdge> access = accessEdges(JourneyEndpoint.ofCoordinates(sourceLat, sourceLng), effective);
+        List<WalkingEdge> egress = egressEdges(JourneyEndpoint.ofCoordinates(targetLat, targetLng), effective);
+        recordPhase(context, "access", accessStart);
 
-        if (sourceId == null || targetId == null) {
+        if (access.isEmpty() || egress.isEmpty()) {
             throw new IllegalArgumentException("No nearby stop within walking distance.");
         }
 
-        List<PathStep> basePath = executeQuery(sourceId, targetId, departureTime, dateStr, effective);
-        if (basePath.isEmpty()) {
-            return basePath;
+        PlannedPath planned = executeQuery(access, egress, departureTime, dateStr, effective, null, context);
+        return finishPath(planned,
+                JourneyEndpoint.ofCoordinates(sourceLat, sourceLng),
+                JourneyEndpoint.ofCoordinates(targetLat, targetLng),
+                effective);
+    }
+
+    /**
+     * Plans a journey like {@link #query} while reporting progress: each RAPTOR round that
+     * reaches the destination earlier (or with less walking) than the last report is passed
+     * to {@code listener} before the search continues. CSA searches have no rounds and only
+     * return the final journey. Returns the same journey the non-streaming query would.
+     */
+    public List<PathStep> streamQuery(JourneyEndpoint origin,
+                                      JourneyEndpoint destination,
+                                      String departureTime,
+                                      String dateStr,
+                                      QueryPreferences preferences,
+                                      JourneyListener listener,
+                                      QueryContext context) {
+        QueryPreferences effective = preferences != null
+                ? preferences
+                : QueryPreferences.baseline(MAX_CONSECUTIVE_WALK_KM, MAX_CUMULATIVE_WALK_KM);
+
+        long accessStart = System.nanoTime();
+        List<WalkingEdge> access = accessEdges(origin, effective);
+        List<WalkingEdge> egress = egressEdges(destination, effective);
+        recordPhase(context, "access", accessStart);
+        if (access.isEmpty() || egress.isEmpty()) {
+            throw unresolvedEndpoints(origin, destination);
         }
 
-        return addEndpointWalks(basePath, sourceId, targetId, sourceLat, sourceLng, targetLat, targetLng, effective);
+        PlanListener progress = listener == null ? null
+                : (round, partial) -> listener.journeyFound(round, finishPath(partial, origin, destination, effective));
+        PlannedPath planned = executeQuery(access, egress, departureTime, dateStr, effective, progress, context);
+        return finishPath(planned, origin, destination, effective);
+    }
+
+    /**
+     * Runs a single one-to-all search from {@code origin}; the returned search answers journeys
+     * to any number of destinations. RAPTOR is never target-pruned and CSA runs without egress
+     * bounds here, so each answer matches the journey a standalone query would plan.
+     */
+    public OriginSearch searchFrom(JourneyEndpoint origin,
+                                   String departureTime,
+                                   String dateStr,
+                                   QueryPreferences preferences,
+                                   QueryContext context) {
+        QueryPreferences effective = preferences != null
+                ? preferences
+                : QueryPreferences.baseline(MAX_CONSECUTIVE_WALK_KM, MAX_CUMULATIVE_WALK_KM);
+
+        if (!effective.isValid()) {
+            throw new IllegalArgumentException("Invalid transport preference configuration");
+        }
+
+        List<WalkingEdge> access = accessEdges(origin, effective);
+        if (access.isEmpty()) {
+            throw unresolvedEndpoints(origin, origin);
+        }
+
+        String dayType = resolveDayType(dateStr);
+        Set<String> modeFilter = effective.requiresCSA() ? effective.getAllowedModes() : null;
+        Map<String, Trip> filteredTrips = filterTrips(dayType, modeFilter);
+        if (filteredTrips.isEmpty()) {
+            return new OriginSearch(origin, access, effective, filteredTrips, null, context);
+        }
+
+        Result result = searchOneToAll(access, departureTime, dayType, filteredTrips, effective, context);
+        return new OriginSearch(origin, access, effective, filteredTrips, result, context);
+    }
+
+    /**
+     * Runs a one-to-all search from {@code access} with the engine the preferences call for:
+     * CSA when they restrict modes or walking, RAPTOR otherwise.
+     */
+    private Result searchOneToAll(List<WalkingEdge> access,
+                                  String departureTime,
+                                  String dayType,
+                                  Map<String, Trip> filteredTrips,
+                                  QueryPreferences effective,
+                                  QueryContext context) {
+        Result result;
+        long searchStart = System.nanoTime();
+        if (effective.requiresCSA()) {
+            result = CSAEngine.run(
+                    engineAccess(access),
+                    Collections.emptyList(),
+                    departureTime,
+                    filteredTrips,
+                    loader.stopDetails,
+                    loader.walkingEdges,
+                    effective,
+                    context
+            );
+        } else {
+            result = Raptor.runRaptor(
+                    engineAccess(access),
+                    departureTime,
+                    loader.stops,
+                    filteredTrips,
+                    loader.stopToRoutes,
+                    dayType,
+                    loader.walkingEdges,
+                    effective.getMaxCumulativeWalkKm(),
+                    effective.getMaxConsecutiveWalkKm(),
+                    null,
+                    context
+            );
+        }
+        recordSearch(effective.requiresCSA() ? "CSA" : "RAPTOR", searchStart, context);
+        return result;
+    }
+
+    /** Labels of one completed one-to-all search, shared by every destination planned from it. */
+    public final class OriginSearch {
+        private final JourneyEndpoint origin;
+        private final List<WalkingEdge> access;
+        private final QueryPreferences preferences;
+        private final Map<String, Trip> filteredTrips;
+        private final Result result;
+        private final QueryContext context;
+
+        private OriginSearch(JourneyEndpoint origin,
+                             List<WalkingEdge> access,
+                             QueryPreferences preferences,
+                             Map<String, Trip> filteredTrips,
+                             Result result,
+                             QueryContext context) {
+            this.origin = origin;
+            this.access = access;
+            this.preferences = preferences;
+            this.filteredTrips = filteredTrips;
+            this.result = result;
+            this.context = context;
+        }
+
+        /**
+         * Plans the journey to {@code destination}, or returns an empty list when unreachable.
+         * Throws {@link QueryTimeoutException} if the search was cut short before reaching it.
+         */
+        public List<PathStep> journeyTo(JourneyEndpoint destination) {
+            List<WalkingEdge> egress = egressEdges(destination, preferences);
+            if (egress.isEmpty()) {
+                throw unresolvedEndpoints(origin, destination);
+            }
+            if (result == null) {
+                return Collections.emptyList();
+            }
+            EgressChoice choice = selectEgress(result, access, egress, preferences, false);
+            if (choice == null) {
+                if (context.isTruncated()) throw new QueryTimeoutException();
+                return Collections.emptyList();
+            }
+            return finishPath(reconstruct(result, choice, filteredTrips), origin, destination, preferences);
+        }
+    }
+
+    /** Error raised when an endpoint resolves to no stop, worded as the single queries word it. */
+    private static IllegalArgumentException unresolvedEndpoints(JourneyEndpoint origin, JourneyEndpoint destination) {
+        return new IllegalArgumentException(origin.isCoordinates() && destination.isCoordinates()
+                ? "No nearby stop within walking distance."
+                : "Invalid stop name(s).");
+    }
+
+    /**
+     * Key under which identical in-flight queries share one computation. The date is reduced to
+     * its day type, which is all the planners read from it.
+     */
+    private String coalescingKey(String endpoints, String departureTime, String dateStr, QueryPreferences preferences) {
+        QueryPreferences effective = preferences != null
+                ? preferences
+                : QueryPreferences.baseline(MAX_CONSECUTIVE_WALK_KM, MAX_CUMULATIVE_WALK_KM);
+        String time = departureTime == null ? "" : departureTime.trim();
+        return endpoints + "|" + time + "|" + resolveDayType(dateStr) + "|" + effective.fingerprint();
+    }
+
+    private static String normalizeNameKey(String stopName) {
+        return stopName == null ? "" : stopName.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /** Receives improved journeys while a streamed query is still searching. */
+    public interface JourneyListener {
+        void journeyFound(int round, List<PathStep> steps);
+    }
+
+    /** Adds the walks to and from exact coordinates once a stop-to-stop path is chosen. */
+    private List<PathStep> finishPath(PlannedPath planned,
+                                      JourneyEndpoint origin,
+                                      JourneyEndpoint destination,
+                                      QueryPreferences preferences) {
+        if (planned.steps.isEmpty() || !origin.isCoordinates() || !destination.isCoordinates()) {
+            return planned.steps;
+        }
+        return addEndpointWalks(planned.steps,
+                planned.access.getToStopId(),
+                planned.egress.getFromStopId(),
+                origin.getLat(), origin.getLng(), destination.getLat(), destination.getLng(), preferences);
+    }
+
+    /**
+     * Computes a many-to-many travel-time matrix. Trips are filtered once per call and each
+     * origin runs a single one-to-all search with the engine /journey would use for the same
+     * preferences; origins are processed in parallel over
+     * this system's data, which is never mutated once construction has finished. Each origin
+     * gets a fair share of what is left of {@code context}'s budget when its search starts, so
+     * one slow origin cannot use up the others' time. An origin that runs out keeps the arrivals
+     * found so far and its row is flagged truncated; the rest of the matrix is unaffected.
+     */
+    public TravelTimeMatrix computeMatrix(List<JourneyEndpoint> origins,
+                                          List<JourneyEndpoint> destinations,
+                                          String departureTime,
+                                          String dateStr,
+                                          QueryPreferences preferences,
+                                          QueryContext context) {
+        QueryPreferences effective = preferences != null
+                ? preferences
+                : QueryPreferences.baseline(MAX_CONSECUTIVE_WALK_KM, MAX_CUMULATIVE_WALK_KM);
+
+        if (!effective.isValid()) {
+            throw new IllegalArgumentException("Invalid transport preference configuration");
+        }
+
+        int departureMinutes = Raptor.timeToMinutes(departureTime);
+        List<List<WalkingEdge>> originAccess = new ArrayList<>();
+        for (JourneyEndpoint origin : origins) {
+            originAccess.add(accessEdges(origin, effective));
+        }
+        List<List<WalkingEdge>> destinationEgress = new ArrayList<>();
+        for (JourneyEndpoint destination : destinations) {
+            destinationEgress.add(egressEdges(destination, effective));
+        }
+
+        TravelTimeMatrix matrix = new TravelTimeMatrix(
+                nearestStopIds(originAccess, true),
+                nearestStopIds(destinationEgress, false),
+                departureMinutes);
+
+        String dayType = resolveDayType(dateStr);
+        Set<String> modeFilter = effective.requiresCSA() ? effective.getAllowedModes() : null;
+        Map<String, Trip> filteredTrips = filterTrips(dayType, modeFilter);
+        if (filteredTrips.isEmpty()) {
+            return matrix;
+        }
+
+        int workers = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        AtomicInteger started = new AtomicInteger();
+        IntStream.range(0, originAccess.size()).parallel().forEach(row -> {
+            List<WalkingEdge> access = originAccess.get(row);
+            if (access.isEmpty()) return;
+
+            // Split what is left evenly over the waves of origins still to start, this one included.
+            int waiting = originAccess.size() - started.getAndIncrement();
+            int waves = (waiting + workers - 1) / workers;
+            QueryContext rowContext = context.withBudget(context.remainingNanos() / Math.max(1, waves));
+
+            Result result = searchOneToAll(access, departureTime, dayType, filteredTrips, effective, rowContext);
+            if (result == null) return;
+
+            for (int col = 0; col < destinationEgress.size(); col++) {
+                EgressChoice choice = selectEgress(result, access, destinationEgress.get(col), effective, true);
+                if (choice == null) continue;
+                int transfers = countTransfers(choice.egress.getFromStopId(), result.predecessor);
+                matrix.set(row, col, choice.arrival, transfers);
+            }
+            if (rowContext.isTruncated()) {
+                matrix.markTruncated(row);
+            }
+        });
+        return matrix;
+    }
+
+    /** Candidate boarding stops for an endpoint, each reached by a walk from the origin. */
+    private List<WalkingEdge> accessEdges(JourneyEndpoint endpoint, QueryPreferences preferences) {
+        List<WalkingEdge> edges = new ArrayList<>();
+        if (endpoint == null) {
+            return edges;
+        }
+        if (!endpoint.isCoordinates()) {
+            Integer stopId = loader.findStopByName(endpoint.getStopName());
+            if (stopId != null) {
+                edges.add(new WalkingEdge(ORIGIN_STOP_ID, stopId, 0, 0.0));
+            }
+            return edges;
+        }
+        Map<Integer, Double> nearby = loader.findStopsWithin(endpoint.getLat(), endpoint.getLng(), lookupRadiusKm(preferences));
+        for (Map.Entry<Integer, Double> candidate : nearby.entrySet()) {
+            double distanceKm = candidate.getValue();
+            edges.add(new WalkingEdge(ORIGIN_STOP_ID, candidate.getKey(), endpointWalkMinutes(distanceKm), distanceKm));
+        }
+        return edges;
+    }
+
+    /** Candidate alighting stops for an endpoint, each followed by a walk to the destination. */
+    private List<WalkingEdge> egressEdges(JourneyEndpoint endpoint, QueryPreferences preferences) {
+        List<WalkingEdge> edges = new ArrayList<>();
+        for (WalkingEdge access : accessEdges(endpoint, preferences)) {
+            edges.add(new WalkingEdge(access.getToStopId(), DESTINATION_STOP_ID,
+                    access.getDurationMinutes(), access.getDistanceKm()));
+        }
+        return edges;
+    }
+
+    /**
+     * Copies access edges with zero distance so the engines charge their walk time but leave the
+     * walking budget to in-network transfers, matching how endpoint walks have always been treated.
+     */
+    private static List<WalkingEdge> engineAccess(List<WalkingEdge> access) {
+        List<WalkingEdge> edges = new ArrayList<>(access.size());
+        for (WalkingEdge edge : access) {
+            edges.add(new WalkingEdge(edge.getFromStopId(), edge.getToStopId(), edge.getDurationMinutes(), 0.0));
+        }
+        return edges;
+    }
+
+    /** Walk time charged for an endpoint walk; walks below the display threshold are free. */
+    private static int endpointWalkMinutes(double distanceKm) {
+        return distanceKm < ENDPOINT_WALK_THRESHOLD_KM ? 0 : computeWalkMinutes(distanceKm);
+    }
+
+    private static Integer[] nearestStopIds(List<List<WalkingEdge>> candidates, boolean access) {
+        Integer[] ids = new Integer[candidates.size()];
+        for (int i = 0; i < ids.length; i++) {
+            List<WalkingEdge> edges = candidates.get(i);
+            if (edges.isEmpty()) continue;
+            ids[i] = access ? edges.get(0).getToStopId() : edges.get(0).getFromStopId();
+        }
+        return ids;
+    }
+
+    /** Radius used to snap coordinates to stops, bounded by the walking preferences. */
+    private static double lookupRadiusKm(QueryPreferences preferences) {
+        return preferences.allowsWalking()
+                ? Math.min(MAX_STOP_LOOKUP_DISTANCE_KM, Math.max(preferences.getMaxConsecutiveWalkKm(), 0.0))
+                : 0.0;
+    }
+
+    /** Counts vehicle changes along the predecessor chain ending at the given stop. */
+    private static int countTransfers(int targetId, Map<Integer, Predecessor> predecessors) {
+        int transitLegs = 0;
+        String lastTrip = null;
+        Set<Integer> visited = new HashSet<>();
+
+        int cursor = targetId;
+        while (predecessors.containsKey(cursor) && visited.add(cursor)) {
+            Predecessor step = predecessors.get(cursor);
+            if (!step.walking && !Objects.equals(step.tripID, lastTrip)) {
+                transitLegs++;
+                lastTrip = step.tripID;
+            }
+            cursor = step.from;
+        }
+        return Math.max(0, transitLegs - 1);
     }
 
     /** Runs the chosen algorithm (RAPTOR or CSA) after resolving day type and filters. */
@@ -155,40 +818,104 @@ public class TransitSystem {
                                         int targetId,
                                         String departureTime,
                                         String dateStr,
-                                        QueryPreferences preferences) {
+                                        QueryPreferences preferences,
+                                        QueryContext context) {
+        return executeQuery(
+                List.of(new WalkingEdge(ORIGIN_STOP_ID, sourceId, 0, 0.0)),
+                List.of(new WalkingEdge(targetId, DESTINATION_STOP_ID, 0, 0.0)),
+                departureTime,
+                dateStr,
+                preferences,
+                null,
+                context).steps;
+    }
+
+    /**
+     * Runs the chosen algorithm (RAPTOR or CSA) from every access stop at once, then picks the
+     * egress stop whose arrival plus walk reaches the destination first. Improved intermediate
+     * journeys go to {@code progress} when set. A search stopped by the context's deadline
+     * yields the best journey reached so far, or {@link QueryTimeoutException} if there is none.
+     * Each call is reported as a {@link JourneyEvents.Query} flight recorder event, except for
+     * warm-up queries.
+     */
+    private PlannedPath executeQuery(List<WalkingEdge> access,
+                                     List<WalkingEdge> egress,
+                                     String departureTime,
+                                     String dateStr,
+                                     QueryPreferences preferences,
+                                     PlanListener progress,
+                                     QueryContext context) {
+        if (context.isWarmUp()) {
+            return plan(access, egress, departureTime, dateStr, preferences, progress, context);
+        }
+        JourneyEvents.Query event = JourneyEvents.beginQuery();
+        PlannedPath planned = null;
+        try {
+            planned = plan(access, egress, departureTime, dateStr, preferences, progress, context);
+            return planned;
+        } finally {
+            if (event.isEnabled()) {
+                JourneyEvents.endQuery(event,
+                        preferences != null && preferences.requiresCSA() ? "CSA" : "RAPTOR",
+                        resolveDayType(dateStr),
+                        departureTime,
+                        access,
+                        egress,
+                        planned == null ? 0 : planned.steps.size(),
+                        context.isTruncated());
+            }
+        }
+    }
+
+    private PlannedPath plan(List<WalkingEdge> access,
+                             List<WalkingEdge> egress,
+                             String departureTime,
+                             String dateStr,
+                             QueryPreferences preferences,
+                             PlanListener progress,
+                             QueryContext context) {
         QueryPreferences effective = preferences != null
                 ? preferences
                 : QueryPreferences.baseline(MAX_CONSECUTIVE_WALK_KM, MAX_CUMULATIVE_WALK_KM);
 
+        SearchStats stats = context.stats();
+        if (stats != null) {
+            stats.originStops = access.stream().mapToInt(WalkingEdge::getToStopId).toArray();
+            stats.destinationStops = egress.stream().mapToInt(WalkingEdge::getFromStopId).toArray();
+        }
+
         if (!effective.isValid()) {
             throw new IllegalArgumentException("Invalid transport preference configuration");
         }
 
+        long filterStart = System.nanoTime();
         String dayType = resolveDayType(dateStr);
         Set<String> modeFilter = effective.requiresCSA() ? effective.getAllowedModes() : null;
         Map<String, Trip> filteredTrips = filterTrips(dayType, modeFilter);
+        recordPhase(context, "filter", filterStart);
 
         if (filteredTrips.isEmpty()) {
-            return Collections.emptyList();
+            return PlannedPath.EMPTY;
         }
 
         Result result;
         boolean useCSA = effective.requiresCSA();
+        long searchStart = System.nanoTime();
 
         if (useCSA) {
             result = CSAEngine.run(
-                    sourceId,
-                    targetId,
+                    engineAccess(access),
+                    egress,
                     departureTime,
                     filteredTrips,
                     loader.stopDetails,
                     loader.walkingEdges,
-                    effective
+                    effective,
+                    context
             );
         } else {
             result = Raptor.runRaptor(
-                    sourceId,
-                    targetId,
+                    engineAccess(access),
                     departureTime,
                     loader.stops,
                     filteredTrips,
@@ -196,34 +923,196 @@ public class TransitSystem {
                     dayType,
                     loader.walkingEdges,
                     effective.getMaxCumulativeWalkKm(),
-                    effective.getMaxConsecutiveWalkKm()
+                    effective.getMaxConsecutiveWalkKm(),
+                    progress == null ? null : roundReporter(access, egress, effective, filteredTrips, progress),
+                    context
             );
         }
+        recordSearch(useCSA ? "CSA" : "RAPTOR", searchStart, context);
 
         if (result == null) {
-            return Collections.emptyList();
+            return PlannedPath.EMPTY;
+        }
+
+        long reconstructStart = System.nanoTime();
+        EgressChoice choice = selectEgress(result, access, egress, effective, false);
+        if (choice == null) {
+            if (context.isTruncated()) throw new QueryTimeoutException();
+            return PlannedPath.EMPTY;
         }
+        PlannedPath planned = reconstruct(result, choice, filteredTrips);
+        recordPhase(context, "reconstruct", reconstructStart);
+        return planned;
+    }
+
+    /**
+     * Records engine time in the metrics (warm-up queries excepted) and, when the context
+     * collects stats, in its search phase; work counters reach the metrics only when the engines
+     * counted them.
+     */
+    private static void recordSearch(String algorithm, long startNanos, QueryContext context) {
+        long elapsed = System.nanoTime() - startNanos;
+        if (!context.isWarmUp()) Metrics.observeSearch(algorithm, elapsed);
+        SearchStats stats = context.stats();
+        if (stats != null) {
+            stats.algorithm = algorithm;
+            stats.addPhase("search", elapsed);
+            if (context.workCounters() != null) Metrics.recordSearchStats(stats);
+        }
+    }
 
+    /** Adds the time since {@code startNanos} to a phase when the context collects stats. */
+    private static void recordPhase(QueryContext context, String phase, long startNanos) {
+        SearchStats stats = context.stats();
+        if (stats != null) {
+            stats.addPhase(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /** Rebuilds the stop-to-stop path for a chosen access/egress pair. */
+    private PlannedPath reconstruct(Result result, EgressChoice choice, Map<String, Trip> filteredTrips) {
         List<PathStep> path = Raptor.reconstructPath(
                 result.predecessor,
-                sourceId,
-                targetId,
+                choice.access.getToStopId(),
+                choice.egress.getFromStopId(),
                 loader,
                 filteredTrips
         );
 
         if (path.isEmpty()) {
-            return path;
+            return PlannedPath.EMPTY;
         }
 
-        WalkingStats walkingStats = computeWalkingStats(sourceId, targetId, result.predecessor);
+        return new PlannedPath(path, choice.access, choice.egress);
+    }
+
+    /**
+     * Turns RAPTOR round callbacks into journey reports, skipping rounds that neither reach the
+     * destination earlier nor with less walking than the journey reported last.
+     */
+    private Raptor.RoundListener roundReporter(List<WalkingEdge> access,
+                                               List<WalkingEdge> egress,
+                                               QueryPreferences preferences,
+                                               Map<String, Trip> filteredTrips,
+                                               PlanListener progress) {
+        final double WALK_EPS = 1e-6;
+        EgressChoice[] reported = new EgressChoice[1];
+        return (round, labels) -> {
+            EgressChoice choice = selectEgress(labels, access, egress, preferences, false);
+            if (choice == null) return;
+            EgressChoice last = reported[0];
+            if (last != null && choice.arrival >= last.arrival && choice.walkKm + WALK_EPS >= last.walkKm) return;
+
+            PlannedPath planned = reconstruct(labels, choice, filteredTrips);
+            if (planned.steps.isEmpty()) return;
+            reported[0] = choice;
+            progress.planFound(round, planned);
+        };
+    }
+
+    private interface PlanListener {
+        void planFound(int round, PlannedPath planned);
+    }
+
+    /**
+     * Picks the egress stop with the earliest arrival at the destination (ties go to less walking)
+     * whose predecessor chain leads back to an access stop within the walking limits. Unless
+     * {@code allowWalkOnly} is set, the chain must contain at least one leg. Endpoint walks are
+     * bounded by the stop lookup radius and do not consume the in-network walking budget.
+     */
+    private EgressChoice selectEgress(Result result,
+                                      List<WalkingEdge> access,
+                                      List<WalkingEdge> egress,
+                                      QueryPreferences preferences,
+                                      boolean allowWalkOnly) {
         final double WALK_EPS = 1e-6;
-        if (walkingStats.totalKm > effective.getMaxCumulativeWalkKm() + WALK_EPS
-                || walkingStats.maxConsecutiveKm > effective.getMaxConsecutiveWalkKm() + WALK_EPS) {
-            return Collections.emptyList();
+        Map<Integer, WalkingEdge> accessByStop = new HashMap<>();
+        for (WalkingEdge edge : access) {
+            accessByStop.putIfAbsent(edge.getToStopId(), edge);
+        }
+
+        EgressChoice best = null;
+        for (WalkingEdge edge : egress) {
+            int stop = edge.getFromStopId();
+            if (stop < 0 || stop >= result.earliestArrival.length) continue;
+            int stopArrival = result.earliestArrival[stop];
+            if (stopArrival == Integer.MAX_VALUE) continue;
+            if (!allowWalkOnly && !result.predecessor.containsKey(stop)) continue;
+
+            WalkingEdge root = accessByStop.get(chainRoot(stop, result.predecessor));
+            if (root == null) continue;
+
+            WalkingStats walkingStats = computeWalkingStats(root.getToStopId(), stop, result.predecessor);
+            if (walkingStats.totalKm > preferences.getMaxCumulativeWalkKm() + WALK_EPS
+                    || walkingStats.maxConsecutiveKm > preferences.getMaxConsecutiveWalkKm() + WALK_EPS) {
+                continue;
+            }
+
+            int arrival = stopArrival + edge.getDurationMinutes();
+            double walkKm = walkingStats.totalKm + root.getDistanceKm() + edge.getDistanceKm();
+            if (best == null || arrival < best.arrival
+                    || (arrival == best.arrival && walkKm + WALK_EPS < best.walkKm)) {
+                best = new EgressChoice(root, edge, arrival, walkKm);
+            }
+        }
+        return best;
+    }
+
+    /** Follows predecessors back to the stop the search was seeded from, or -1 on a cycle. */
+    private static int chainRoot(int stop, Map<Integer, Predecessor> predecessors) {
+        Set<Integer> visited = new HashSet<>();
+        int cursor = stop;
+        while (predecessors.containsKey(cursor)) {
+            if (!visited.add(cursor)) {
+                return -1;
+            }
+            cursor = predecessors.get(cursor).from;
+        }
+        return cursor;
+    }
+
+    private static final class EgressChoice {
+        final WalkingEdge access;
+        final WalkingEdge egress;
+        final int arrival;
+        final double walkKm;
+
+        EgressChoice(WalkingEdge access, WalkingEdge egress, int arrival, double walkKm) {
+            this.access = access;
+            this.egress = egress;
+            this.arrival = arrival;
+            this.walkKm = walkKm;
         }
+    }
+
+    /**
+     * A planned journey as shared between coalesced callers, with whether its search was cut short
+     * and the leader's stats (null when the leader did not collect any).
+     */
+    private static final class Outcome {
+        final List<PathStep> steps;
+        final boolean truncated;
+        final SearchStats stats;
+
+        Outcome(List<PathStep> steps, boolean truncated, SearchStats stats) {
+            this.steps = steps;
+            this.truncated = truncated;
+            this.stats = stats;
+        }
+    }
+
+    private static final class PlannedPath {
+        static final PlannedPath EMPTY = new PlannedPath(Collections.emptyList(), null, null);
 
-        return path;
+        final List<PathStep> steps;
+        final WalkingEdge access;
+        final WalkingEdge egress;
+
+        PlannedPath(List<PathStep> steps, WalkingEdge access, WalkingEdge egress) {
+            this.steps = steps;
+            this.access = access;
+            this.egress = egress;
+        }
     }
 
     /** Augments a path with walking legs between exact coordinates and nearest stops. */
@@ -281,7 +1170,7 @@ public class TransitSystem {
         String departTime = Raptor.minutesToTime(departMinutes);
         PathStep origin = new PathStep(
                 "WALK",
-                -1,
+                ORIGIN_STOP_ID,
                 "Start location",
                 departTime,
                 sourceLat,
@@ -348,7 +1237,7 @@ public class TransitSystem {
         );
         PathStep destination = new PathStep(
                 "WALK",
-                -2,
+                DESTINATION_STOP_ID,
                 "Destination",
                 finishTime,
                 targetLat,
@@ -0,0 +1,96 @@
+package backend;
+
+import java.util.Arrays;
+
+/**
+ * Many-to-many travel-time result: one row per origin, one column per destination.
+ * Unreachable cells (or cells whose endpoint could not be resolved) are reported as {@code null}.
+ * A row whose search ran out of time holds only the arrivals found before its deadline and is
+ * flagged truncated.
+ */
+public final class TravelTimeMatrix {
+    static final int UNREACHABLE = -1;
+
+    private final Integer[] originStopIds;
+    private final Integer[] destinationStopIds;
+    private final int departureMinutes;
+    private final int[][] arrivalMinutes;
+    private final int[][] transfers;
+    private final boolean[] truncatedRows;
+
+    TravelTimeMatrix(Integer[] originStopIds, Integer[] destinationStopIds, int departureMinutes) {
+        this.originStopIds = originStopIds;
+        this.destinationStopIds = destinationStopIds;
+        this.departureMinutes = departureMinutes;
+        this.arrivalMinutes = new int[originStopIds.length][destinationStopIds.length];
+        this.transfers = new int[originStopIds.length][destinationStopIds.length];
+        this.truncatedRows = new boolean[originStopIds.length];
+        for (int i = 0; i < originStopIds.length; i++) {
+            Arrays.fill(arrivalMinutes[i], UNREACHABLE);
+            Arrays.fill(transfers[i], UNREACHABLE);
+        }
+    }
+
+    /** Records a reachable cell; rows are written by exactly one worker each. */
+    void set(int origin, int destination, int arrival, int transferCount) {
+        arrivalMinutes[origin][destination] = arrival;
+        transfers[origin][destination] = transferCount;
+    }
+
+    void markTruncated(int origin) {
+        truncatedRows[origin] = true;
+    }
+
+    public int originCount() {
+        return originStopIds.length;
+    }
+
+    public int destinationCount() {
+        return destinationStopIds.length;
+    }
+
+    /** Stop the origin was snapped to, or null if it could not be resolved. */
+    public Integer getOriginStopId(int origin) {
+        return originStopIds[origin];
+    }
+
+    /** Stop the destination was snapped to, or null if it could not be resolved. */
+    public Integer getDestinationStopId(int destination) {
+        return destinationStopIds[destination];
+    }
+
+    /** True when the origin's search stopped at its deadline, so some cells may be missing. */
+    public boolean isTruncated(int origin) {
+        return truncatedRows[origin];
+    }
+
+    /** True when any row is truncated. */
+    public boolean isTruncated() {
+        for (boolean truncated : truncatedRows) {
+            if (truncated) return true;
+        }
+        return false;
+    }
+
+    public boolean isReachable(int origin, int destination) {
+        return arrivalMinutes[origin][destination] != UNREACHABLE;
+    }
+
+    /** Arrival time in HH:MM, or null when the destination is unreachable. */
+    public String getArrivalTime(int origin, int destination) {
+        int arrival = arrivalMinutes[origin][destination];
+        return arrival == UNREACHABLE ? null : Raptor.minutesToTime(arrival);
+    }
+
+    /** Minutes from the requested departure to arrival, or null when unreachable. */
+    public Integer getDurationMinutes(int origin, int destination) {
+        int arrival = arrivalMinutes[origin][destination];
+        return arrival == UNREACHABLE ? null : arrival - departureMinutes;
+    }
+
+    /** Number of vehicle changes on the fastest journey, or null when unreachable. */
+    public Integer getTransfers(int origin, int destination) {
+        int count = transfers[origin][destination];
+        return count == UNREACHABLE ? null : count;
+    }
+}
@@ -0,0 +1,88 @@
+package backend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Checks that the grid-based walking edge build matches the all-pairs scan it replaced, edge for
+ * edge and in the same order, on a real dataset.
+ *
+ * <pre>java backend.WalkingEdgeCheck [dataDir]</pre>
+ *
+ * Prints the edge counts and the first differences, and exits with status 1 if there are any.
+ */
+public class WalkingEdgeCheck {
+    private static final int MAX_REPORTED = 20;
+
+    public static void main(String[] args) {
+        String dataDir = args.length > 0 ? args[0] : "CapeTownTransitData/";
+        double maxDistanceKm = TransitSystem.getDefaultMaxConsecutiveWalkKm();
+
+        try {
+            DataLoader loader = new TransitSystem(dataDir).getLoader();
+            // The system may have been restored from a snapshot, so build the edges afresh.
+            long started = System.nanoTime();
+            loader.buildWalkingEdges(maxDistanceKm);
+            long gridMillis = (System.nanoTime() - started) / 1_000_000;
+            started = System.nanoTime();
+            Map<Integer, List<WalkingEdge>> expected = loader.allPairsWalkingEdges(maxDistanceKm);
+            long allPairsMillis = (System.nanoTime() - started) / 1_000_000;
+
+            List<String> differences = compare(expected, loader.walkingEdges);
+            System.out.println("Grid build: " + count(loader.walkingEdges) + " edges in " + gridMillis
+                    + " ms; all pairs: " + count(expected) + " edges in " + allPairsMillis + " ms");
+            if (differences.isEmpty()) {
+                System.out.println("Walking edges match for " + expected.size() + " stops");
+                return;
+            }
+            System.out.println(differences.size() + " stop(s) differ:");
+            differences.stream().limit(MAX_REPORTED).forEach(difference -> System.out.println("  " + difference));
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Error reading transit data: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static List<String> compare(Map<Integer, List<WalkingEdge>> expected, Map<Integer, List<WalkingEdge>> actual) {
+        List<String> differences = new ArrayList<>();
+        TreeSet<Integer> stops = new TreeSet<>(expected.keySet());
+        stops.addAll(actual.keySet());
+        for (int stop : stops) {
+            List<WalkingEdge> want = expected.getOrDefault(stop, List.of());
+            List<WalkingEdge> got = actual.getOrDefault(stop, List.of());
+            if (want.size() != got.size()) {
+                differences.add("stop " + stop + ": expected " + want.size() + " edges, got " + got.size());
+                continue;
+            }
+            for (int i = 0; i < want.size(); i++) {
+                if (!sameEdge(want.get(i), got.get(i))) {
+                    differences.add("stop " + stop + " edge " + i + ": expected " + describe(want.get(i))
+                            + ", got " + describe(got.get(i)));
+                    break;
+                }
+            }
+        }
+        return differences;
+    }
+
+    private static boolean sameEdge(WalkingEdge a, WalkingEdge b) {
+        return a.getFromStopId() == b.getFromStopId()
+                && a.getToStopId() == b.getToStopId()
+                && a.getDurationMinutes() == b.getDurationMinutes()
+                && Double.compare(a.getDistanceKm(), b.getDistanceKm()) == 0;
+    }
+
+    private static String describe(WalkingEdge edge) {
+        return edge.getFromStopId() + "->" + edge.getToStopId() + " " + edge.getDurationMinutes() + " min "
+                + edge.getDistanceKm() + " km";
+    }
+
+    private static int count(Map<Integer, List<WalkingEdge>> edges) {
+        return edges.values().stream().mapToInt(List::size).sum();
+    }
+}
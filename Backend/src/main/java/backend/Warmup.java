@@ -0,0 +1,163 @@
+package backend;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a corpus of journey queries against a freshly built {@link TransitSystem} before it takes
+ * traffic, so RAPTOR, CSA and the response writers are JIT-compiled by the time real queries
+ * arrive. The corpus is either a recorded query log (the {@link SlowQueryLog} format) or a fixed,
+ * seeded set of stop pairs drawn from the loaded data. Every query runs once per engine: as-is
+ * for RAPTOR and with an explicit walking limit, which routes it to CSA. Warm-up queries are
+ * kept out of the query metrics and flight recorder events.
+ */
+public final class Warmup {
+    private static final String[] DAY_TYPES = {"WEEKDAY", "SATURDAY", "SUNDAY"};
+    private static final long SYNTHETIC_SEED = 20_240_917L;
+    private static final String CSA_WALK_METERS = "800";
+
+    private Warmup() {
+    }
+
+    /**
+     * Warms the system with up to {@code queries} corpus queries, stopping early once
+     * {@code budgetMillis} has passed. Returns a summary of what ran.
+     */
+    public static Map<String, Object> run(TransitSystem system, Path corpus, int queries, long budgetMillis) {
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+
+        List<Map<String, String>> base;
+        String source;
+        if (corpus != null) {
+            base = recorded(corpus, queries);
+            source = corpus.toString();
+        } else {
+            base = synthetic(system.getLoader(), queries);
+            source = "synthetic";
+        }
+
+        int raptor = 0;
+        int csa = 0;
+        int failures = 0;
+        boolean completed = true;
+        StringWriter sink = new StringWriter();
+        warm:
+        for (Map<String, String> query : base) {
+            for (Map<String, String> variant : engineVariants(query)) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    completed = false;
+                    break warm;
+                }
+                QueryContext context = QueryContext.withTimeout(remaining).forWarmUp();
+                String dayType = variant.get("dayType");
+                try {
+                    List<PathStep> path = SlowQueryReplay.execute(system, variant, dayType, context);
+                    boolean useCSA = variant.containsKey("maxWalkMeters");
+                    sink.getBuffer().setLength(0);
+                    if ((raptor + csa) % 2 == 0) {
+                        JourneyJsonWriter.writeJourney(sink, path, dayType, useCSA, system.getLoader());
+                    } else {
+                        JourneyJsonWriter.writeCompactJourney(sink, path, dayType, useCSA, system.getLoader());
+                    }
+                    if (useCSA) csa++; else raptor++;
+                } catch (IOException | RuntimeException e) {
+                    failures++;
+                }
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("source", source);
+        summary.put("queries", base.size());
+        summary.put("raptorSearches", raptor);
+        summary.put("csaSearches", csa);
+        summary.put("failures", failures);
+        summary.put("completed", completed);
+        summary.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        System.out.println("[DEBUG] Warm-up ran " + (raptor + csa) + " searches (" + source + ") in "
+                + summary.get("durationMillis") + " ms" + (completed ? "" : ", stopped at its time budget"));
+        return summary;
+    }
+
+    /** The query as RAPTOR sees it (no preferences) and with a walking limit so CSA plans it. */
+    private static List<Map<String, String>> engineVariants(Map<String, String> query) {
+        Map<String, String> raptor = new LinkedHashMap<>(query);
+        raptor.remove("modes");
+        raptor.remove("maxWalkMeters");
+        Map<String, String> csa = new LinkedHashMap<>(query);
+        csa.putIfAbsent("maxWalkMeters", CSA_WALK_METERS);
+        return List.of(raptor, csa);
+    }
+
+    private static List<Map<String, String>> recorded(Path corpus, int limit) {
+        List<Map<String, String>> queries = new ArrayList<>();
+        try {
+            for (Map<String, Object> entry : SlowQueryLog.read(corpus)) {
+                if (queries.size() >= limit) break;
+                if (!(entry.get("params") instanceof Map<?, ?> params)) continue;
+                Map<String, String> query = new LinkedHashMap<>();
+                for (Map.Entry<?, ?> param : params.entrySet()) {
+                    if (param.getValue() != null) {
+                        query.put(param.getKey().toString(), param.getValue().toString());
+                    }
+                }
+                Object dayType = entry.get("dayType");
+                query.put("dayType", dayType != null ? dayType.toString() : DAY_TYPES[queries.size() % DAY_TYPES.length]);
+                queries.add(query);
+            }
+        } catch (IOException e) {
+            System.err.println("[WARN] Could not read warm-up corpus " + corpus + ": " + e.getMessage());
+        }
+        return queries;
+    }
+
+    /**
+     * Seeded stop pairs spread over the service day and all day types, alternating between
+     * stop-name and coordinate queries so both endpoint resolutions get compiled.
+     */
+    private static List<Map<String, String>> synthetic(DataLoader loader, int count) {
+        // Stops without known coordinates sit at 0,0, far from any other stop.
+        List<StopLocation> stops = new ArrayList<>();
+        for (StopLocation stop : loader.stopDetails.values()) {
+            if (stop.getLat() != 0 || stop.getLon() != 0) {
+                stops.add(stop);
+            }
+        }
+        stops.sort(Comparator.comparingInt(StopLocation::getID));
+        List<Map<String, String>> queries = new ArrayList<>();
+        if (stops.size() < 2) return queries;
+
+        Random random = new Random(SYNTHETIC_SEED);
+        for (int i = 0; i < count; i++) {
+            StopLocation from = stops.get(random.nextInt(stops.size()));
+            StopLocation to = stops.get(random.nextInt(stops.size()));
+            if (from == to) continue;
+            Map<String, String> query = new LinkedHashMap<>();
+            if (i % 2 == 0) {
+                query.put("from", from.getName());
+                query.put("to", to.getName());
+            } else {
+                query.put("fromLat", String.valueOf(from.getLat()));
+                query.put("fromLng", String.valueOf(from.getLon()));
+                query.put("toLat", String.valueOf(to.getLat()));
+                query.put("toLng", String.valueOf(to.getLon()));
+            }
+            int minutes = 5 * 60 + random.nextInt(17 * 60);
+            query.put("time", String.format(Locale.ROOT, "%02d:%02d", minutes / 60, minutes % 60));
+            query.put("dayType", DAY_TYPES[i % DAY_TYPES.length]);
+            queries.add(query);
+        }
+        return queries;
+    }
+}